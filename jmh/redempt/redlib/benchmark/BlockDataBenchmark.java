@@ -0,0 +1,59 @@
+package redempt.redlib.benchmark;
+
+import org.bukkit.block.Block;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import redempt.redlib.benchmark.MemoryServer.MemoryWorld;
+import redempt.redlib.blockdata.BlockDataManager;
+import redempt.redlib.blockdata.DataBlock;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks looking up DataBlocks in a BlockDataManager holding 100,000 of them, half of the lookups hitting
+ * @author Redempt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockDataBenchmark {
+	
+	private BlockDataManager manager;
+	private Block[] queries = new Block[4096];
+	private int index = 0;
+	
+	@Setup
+	public void setup() {
+		MemoryServer server = MemoryServer.install();
+		MemoryWorld world = server.createWorld("blockdata");
+		manager = new BlockDataManager(server.getPlugin(), null, false, null);
+		Random random = new Random(0);
+		Block[] blocks = new Block[100000];
+		for (int i = 0; i < blocks.length; i++) {
+			blocks[i] = world.getBlockAt(random.nextInt(2048) - 1024, random.nextInt(256), random.nextInt(2048) - 1024);
+			manager.getDataBlock(blocks[i]).set("custom-type", "benchmark");
+		}
+		for (int i = 0; i < queries.length; i++) {
+			queries[i] = i % 2 == 0 ? blocks[random.nextInt(blocks.length)]
+					: world.getBlockAt(random.nextInt(2048) - 1024, random.nextInt(256), random.nextInt(2048) - 1024);
+		}
+	}
+	
+	@Benchmark
+	public DataBlock getExisting() {
+		return manager.getExisting(queries[index++ & (queries.length - 1)]);
+	}
+	
+}
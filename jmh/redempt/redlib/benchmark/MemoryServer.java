@@ -0,0 +1,346 @@
+package redempt.redlib.benchmark;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+import redempt.redlib.blockdata.backend.BlockPosition;
+import redempt.redlib.misc.LongHashMap;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * A minimal in-memory stand-in for a Bukkit server, so RedLib can be benchmarked without running one. Worlds store
+ * block data strings in memory. Only the methods RedLib calls in the benchmarks are implemented, and every other
+ * method returns a default value.
+ * @author Redempt
+ */
+public class MemoryServer implements InvocationHandler {
+	
+	private static MemoryServer instance;
+	
+	/**
+	 * Installs the stand-in as the Bukkit server, if it has not already been installed
+	 * @return The stand-in server
+	 */
+	public static synchronized MemoryServer install() {
+		if (instance == null) {
+			instance = new MemoryServer();
+			Bukkit.setServer(instance.server);
+		}
+		return instance;
+	}
+	
+	/**
+	 * Creates a proxy of an interface which returns default values for every method except equals, hashCode and toString
+	 * @param type The interface to implement
+	 * @param handler The handler for the methods which should be implemented, returning null for unhandled methods
+	 * @param <T> The type of the interface
+	 * @return The proxy
+	 */
+	public static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(MemoryServer.class.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+			Object value = handler.invoke(proxy, method, args);
+			if (value != null) {
+				return value;
+			}
+			switch (method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+			}
+			return defaultValue(method.getReturnType());
+		}));
+	}
+	
+	private static Object defaultValue(Class<?> type) {
+		if (!type.isPrimitive() || type == void.class) {
+			return null;
+		}
+		if (type == boolean.class) {
+			return false;
+		}
+		if (type == char.class) {
+			return '\0';
+		}
+		if (type == float.class) {
+			return 0f;
+		}
+		if (type == double.class) {
+			return 0d;
+		}
+		if (type == long.class) {
+			return 0L;
+		}
+		if (type == int.class) {
+			return 0;
+		}
+		if (type == short.class) {
+			return (short) 0;
+		}
+		return (byte) 0;
+	}
+	
+	private Server server = proxy(Server.class, this);
+	private Logger logger = Logger.getLogger("MemoryServer");
+	private PluginManager pluginManager = proxy(PluginManager.class, (p, m, a) -> null);
+	private BukkitScheduler scheduler = proxy(BukkitScheduler.class, (p, m, a) -> null);
+	private Plugin plugin = proxy(Plugin.class, (p, m, a) -> {
+		switch (m.getName()) {
+			case "isEnabled":
+				return true;
+			case "getName":
+				return "RedLibBenchmark";
+			case "getServer":
+				return server;
+			case "getLogger":
+				return logger;
+		}
+		return null;
+	});
+	private Map<String, World> worlds = new LinkedHashMap<>();
+	
+	private MemoryServer() {}
+	
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) {
+		switch (method.getName()) {
+			case "getName":
+				return "MemoryServer";
+			case "getVersion":
+				return "MemoryServer (MC: 1.16.1)";
+			case "getBukkitVersion":
+				return "1.16.1-R0.1-SNAPSHOT";
+			case "getLogger":
+				return logger;
+			case "getPluginManager":
+				return pluginManager;
+			case "getScheduler":
+				return scheduler;
+			case "isPrimaryThread":
+				return true;
+			case "getWorlds":
+				return new ArrayList<>(worlds.values());
+			case "getWorld":
+				return args[0] instanceof String ? worlds.get(args[0]) : null;
+			case "createBlockData":
+				if (args.length == 1 && args[0] instanceof String) {
+					return createBlockData((String) args[0]);
+				}
+				if (args.length == 1 && args[0] instanceof Material) {
+					return createBlockData(((Material) args[0]).getKey().toString());
+				}
+				return null;
+		}
+		return null;
+	}
+	
+	/**
+	 * @return A plugin which can be used to register listeners and tasks, none of which will ever run
+	 */
+	public Plugin getPlugin() {
+		return plugin;
+	}
+	
+	/**
+	 * Creates an empty world, filled with air
+	 * @param name The name of the world
+	 * @return The world
+	 */
+	public MemoryWorld createWorld(String name) {
+		MemoryWorld world = new MemoryWorld(name);
+		worlds.put(name, world.getWorld());
+		return world;
+	}
+	
+	/**
+	 * Creates a BlockData from a block data string, such as minecraft:stone or minecraft:oak_stairs[facing=north]
+	 * @param data The block data string
+	 * @return The BlockData
+	 */
+	public static BlockData createBlockData(String data) {
+		String full = data.startsWith("minecraft:") ? data : "minecraft:" + data;
+		int bracket = full.indexOf('[');
+		Material material = Material.matchMaterial(bracket == -1 ? full : full.substring(0, bracket));
+		return proxy(BlockData.class, (p, m, a) -> {
+			switch (m.getName()) {
+				case "getAsString":
+					return full;
+				case "getMaterial":
+					return material;
+				case "matches":
+				case "equals":
+					return a[0] instanceof BlockData && ((BlockData) a[0]).getAsString().equals(full);
+				case "hashCode":
+					return full.hashCode();
+				case "clone":
+					return p;
+			}
+			return null;
+		});
+	}
+	
+	/**
+	 * An in-memory world which stores a block data string for each block which is not air
+	 */
+	public static class MemoryWorld {
+		
+		private String name;
+		private UUID uuid;
+		private World world;
+		private LongHashMap<BlockData> blocks = new LongHashMap<>();
+		private BlockData air = createBlockData("minecraft:air");
+		
+		private MemoryWorld(String name) {
+			this.name = name;
+			this.uuid = UUID.nameUUIDFromBytes(name.getBytes());
+			world = proxy(World.class, (p, m, a) -> {
+				switch (m.getName()) {
+					case "getName":
+						return name;
+					case "getUID":
+						return uuid;
+					case "getBlockAt":
+						if (a.length == 1) {
+							Location loc = (Location) a[0];
+							return getBlockAt(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+						}
+						return getBlockAt((int) a[0], (int) a[1], (int) a[2]);
+					case "getLoadedChunks":
+						return new org.bukkit.Chunk[0];
+					case "getMaxHeight":
+						return 256;
+				}
+				return null;
+			});
+		}
+		
+		/**
+		 * @return The Bukkit World backed by this MemoryWorld
+		 */
+		public World getWorld() {
+			return world;
+		}
+		
+		/**
+		 * Sets the block data at a position
+		 * @param x The X coordinate
+		 * @param y The Y coordinate
+		 * @param z The Z coordinate
+		 * @param data The block data string
+		 */
+		public void setBlock(int x, int y, int z, String data) {
+			BlockData blockData = createBlockData(data);
+			if (blockData.getMaterial() == Material.AIR) {
+				blocks.remove(BlockPosition.pack(x, y, z));
+			} else {
+				blocks.put(BlockPosition.pack(x, y, z), blockData);
+			}
+		}
+		
+		/**
+		 * Gets a Block in this world
+		 * @param x The X coordinate
+		 * @param y The Y coordinate
+		 * @param z The Z coordinate
+		 * @return The Block
+		 */
+		public Block getBlockAt(int x, int y, int z) {
+			return proxy(Block.class, new BlockHandler(x, y, z));
+		}
+		
+		private BlockData getData(int x, int y, int z) {
+			BlockData data = blocks.get(BlockPosition.pack(x, y, z));
+			return data == null ? air : data;
+		}
+		
+		private class BlockHandler implements InvocationHandler {
+			
+			private int x;
+			private int y;
+			private int z;
+			
+			public BlockHandler(int x, int y, int z) {
+				this.x = x;
+				this.y = y;
+				this.z = z;
+			}
+			
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+					case "getX":
+						return x;
+					case "getY":
+						return y;
+					case "getZ":
+						return z;
+					case "getWorld":
+						return world;
+					case "getLocation":
+						if (args == null) {
+							return new Location(world, x, y, z);
+						}
+						Location loc = (Location) args[0];
+						if (loc != null) {
+							loc.setWorld(world);
+							loc.setX(x);
+							loc.setY(y);
+							loc.setZ(z);
+						}
+						return loc;
+					case "getBlockData":
+						return getData(x, y, z);
+					case "getType":
+						return getData(x, y, z).getMaterial();
+					case "getData":
+						return (byte) 0;
+					case "setBlockData":
+						setBlock(x, y, z, ((BlockData) args[0]).getAsString());
+						return null;
+					case "setType":
+						setBlock(x, y, z, ((Material) args[0]).getKey().toString());
+						return null;
+					case "getRelative":
+						if (args[0] instanceof BlockFace) {
+							BlockFace face = (BlockFace) args[0];
+							int distance = args.length > 1 ? (int) args[1] : 1;
+							return getBlockAt(x + face.getModX() * distance, y + face.getModY() * distance, z + face.getModZ() * distance);
+						}
+						return getBlockAt(x + (int) args[0], y + (int) args[1], z + (int) args[2]);
+					case "equals":
+						if (!(args[0] instanceof Block)) {
+							return false;
+						}
+						Block other = (Block) args[0];
+						return other.getWorld() == world && other.getX() == x && other.getY() == y && other.getZ() == z;
+					case "hashCode":
+						return (x * 31 + y) * 31 + z;
+					case "toString":
+						return "MemoryBlock{" + name + " " + x + " " + y + " " + z + "}";
+				}
+				return null;
+			}
+			
+		}
+		
+	}
+	
+}
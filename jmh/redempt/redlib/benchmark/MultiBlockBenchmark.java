@@ -0,0 +1,68 @@
+package redempt.redlib.benchmark;
+
+import org.bukkit.Location;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import redempt.redlib.benchmark.MemoryServer.MemoryWorld;
+import redempt.redlib.multiblock.MultiBlockStructure;
+import redempt.redlib.multiblock.Structure;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks finding a 3x3x3 MultiBlockStructure from one of its blocks without knowing its rotation or offset,
+ * and checking a block which is not part of any structure
+ * @author Redempt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiBlockBenchmark {
+	
+	private static final String[] BLOCKS = {"stone", "dirt", "oak_planks", "cobblestone", "glass", "iron_block"};
+	
+	private MultiBlockStructure structure;
+	private Location hit;
+	private Location miss;
+	
+	@Setup
+	public void setup() {
+		MemoryWorld world = MemoryServer.install().createWorld("multiblock");
+		StringBuilder info = new StringBuilder("3x3x3");
+		for (int x = 0; x < 3; x++) {
+			for (int y = 0; y < 3; y++) {
+				for (int z = 0; z < 3; z++) {
+					String block = BLOCKS[(x * 9 + y * 3 + z) % BLOCKS.length];
+					info.append(";minecraft:").append(block);
+					world.setBlock(x, 64 + y, z, block);
+					world.setBlock(x + 100, 64 + y, z, "stone");
+				}
+			}
+		}
+		structure = MultiBlockStructure.create(info.toString(), "benchmark");
+		hit = new Location(world.getWorld(), 2, 65, 1);
+		miss = new Location(world.getWorld(), 101, 65, 1);
+	}
+	
+	@Benchmark
+	public Structure getAtHit() {
+		return structure.getAt(hit);
+	}
+	
+	@Benchmark
+	public Structure getAtMiss() {
+		return structure.getAt(miss);
+	}
+	
+}
@@ -0,0 +1,49 @@
+package redempt.redlib.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import redempt.redlib.worldgen.NoiseGenerator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks sampling 2D and 3D noise along a path which does not repeat coordinates
+ * @author Redempt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NoiseBenchmark {
+	
+	private NoiseGenerator noise;
+	private double pos = 0;
+	
+	@Setup
+	public void setup() {
+		noise = new NoiseGenerator(0);
+	}
+	
+	@Benchmark
+	public double noise2d() {
+		pos = (pos + 0.37) % 4096;
+		return noise.noise(pos, pos * 0.61);
+	}
+	
+	@Benchmark
+	public double noise3d() {
+		pos = (pos + 0.37) % 4096;
+		return noise.noise(pos, pos * 0.23, pos * 0.61);
+	}
+	
+}
@@ -0,0 +1,88 @@
+package redempt.redlib.benchmark;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import redempt.redlib.region.MultiRegion;
+import redempt.redlib.region.Region;
+import redempt.redlib.region.RegionMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks point and radius queries on a RegionMap of 10,000 regions, and containment checks on a MultiRegion
+ * made of 200 overlapping cuboids
+ * @author Redempt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegionBenchmark {
+	
+	private RegionMap<Region> map = new RegionMap<>();
+	private MultiRegion multiRegion;
+	private Location[] queries = new Location[4096];
+	private Location[] multiQueries = new Location[4096];
+	private int index = 0;
+	
+	@Setup
+	public void setup() {
+		World world = MemoryServer.install().createWorld("region").getWorld();
+		Random random = new Random(0);
+		for (int i = 0; i < 10000; i++) {
+			Region region = randomRegion(world, random, 4096, 32);
+			map.set(region, region);
+		}
+		for (int i = 0; i < queries.length; i++) {
+			queries[i] = new Location(world, random.nextDouble() * 4096 - 2048, random.nextDouble() * 256, random.nextDouble() * 4096 - 2048);
+		}
+		List<Region> regions = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			regions.add(randomRegion(world, random, 256, 24));
+		}
+		multiRegion = new MultiRegion(regions);
+		for (int i = 0; i < multiQueries.length; i++) {
+			multiQueries[i] = new Location(world, random.nextDouble() * 300 - 150, random.nextDouble() * 256, random.nextDouble() * 300 - 150);
+		}
+	}
+	
+	private static Region randomRegion(World world, Random random, int spread, int size) {
+		int x = random.nextInt(spread) - spread / 2;
+		int y = random.nextInt(200);
+		int z = random.nextInt(spread) - spread / 2;
+		return new Region(new Location(world, x, y, z),
+				new Location(world, x + random.nextInt(size) + 1, y + random.nextInt(size) + 1, z + random.nextInt(size) + 1));
+	}
+	
+	@Benchmark
+	public Set<Region> regionMapGet() {
+		return map.get(queries[index++ & (queries.length - 1)]);
+	}
+	
+	@Benchmark
+	public Set<Region> regionMapGetNearby() {
+		return map.getNearby(queries[index++ & (queries.length - 1)], 64);
+	}
+	
+	@Benchmark
+	public boolean multiRegionContains() {
+		return multiRegion.contains(multiQueries[index++ & (multiQueries.length - 1)]);
+	}
+	
+}
@@ -52,6 +52,7 @@ public class RedLib extends JavaPlugin {
 	@Override
 	public void onDisable() {
 		PacketListener.disable();
+		RegionEnterExitListener.setAsync(false);
 	}
 	
 	public static String getServerVersion() {
@@ -1,39 +1,66 @@
 package redempt.redlib.blockdata;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.block.Block;
-import org.bukkit.configuration.ConfigurationSection;
-import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.block.BlockFace;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.*;
 import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.plugin.Plugin;
 import redempt.redlib.RedLib;
+import redempt.redlib.blockdata.backend.BlockDataBackend;
+import redempt.redlib.blockdata.backend.BlockDataJournal;
+import redempt.redlib.blockdata.backend.BlockPosition;
+import redempt.redlib.blockdata.backend.ChunkPosition;
 import redempt.redlib.blockdata.events.DataBlockBreakEvent;
 import redempt.redlib.blockdata.events.DataBlockDestroyEvent;
 import redempt.redlib.blockdata.events.DataBlockDestroyEvent.DestroyCause;
 import redempt.redlib.blockdata.events.DataBlockMoveEvent;
-import redempt.redlib.misc.LocationUtils;
-import redempt.redlib.region.RegionMap;
+import redempt.redlib.blockdata.events.DataBlockMultiDestroyEvent;
+import redempt.redlib.blockdata.events.DataBlockMultiMoveEvent;
+import redempt.redlib.misc.LongHashMap;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Manages {@link DataBlock} instances, which allow you to attach persistent metadata to blocks,
  * Keeps track of managed blocks, removing data if a block is destroyed or moving it if a block is pushed
- * by a piston.
+ * by a piston. Call {@link BlockDataManager#close()} in your onDisable to save and release the backend and journal.
  * @author Redempt
  */
 public class BlockDataManager implements Listener {
 
-	protected RegionMap<DataBlock> map = new RegionMap<DataBlock>(10);
-	private YamlConfiguration config;
-	private Path file;
+	private Map<String, WorldIndex> worlds = new HashMap<>();
+	private Set<ChunkPosition> dirty = new HashSet<>();
+	// Chunks whose data was loaded by a lookup while the chunk itself was not loaded
+	private Set<ChunkPosition> probed = new HashSet<>();
+	private Map<String, Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>>> pending = new HashMap<>();
+	private Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> evicted = new HashMap<>();
+	private Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> saving = new HashMap<>();
+	private ExecutorService saveExecutor;
+	private CompletableFuture<Void> lastSave = CompletableFuture.completedFuture(null);
+	private Queue<Runnable> finishedSaves = new ConcurrentLinkedQueue<>();
+	private List<Integer> tasks = new ArrayList<>();
+	private boolean closed = false;
+	private Plugin plugin;
+	private BlockDataBackend backend;
+	private BlockDataJournal journal;
+	private int saveCount = 0;
+	private int journalHold = 0;
+	private boolean lazy;
 	
 	/**
 	 * Create a BlockDataManager instance with a save file location, to be saved to and loaded from. This constructor
@@ -41,20 +68,82 @@ public class BlockDataManager implements Listener {
 	 * @param saveFile The Path to load from immediately, and save to when save is called
 	 */
 	public BlockDataManager(Path saveFile) {
-		this.file = saveFile;
-		Bukkit.getPluginManager().registerEvents(this, RedLib.getInstance());
-		if (file == null) {
+		this(saveFile == null ? null : BlockDataBackend.yaml(saveFile));
+	}
+	
+	/**
+	 * Create a BlockDataManager instance with a storage backend, to be saved to and loaded from. This constructor
+	 * immediately loads all data from the given backend. Use {@link BlockDataBackend#chunkedYaml(Path)} so that saving
+	 * only writes the chunks which have changed.
+	 * @param backend The BlockDataBackend to load from immediately, and save to when save is called
+	 */
+	public BlockDataManager(BlockDataBackend backend) {
+		this(backend, false);
+	}
+	
+	/**
+	 * Create a BlockDataManager instance with a storage backend, to be saved to and loaded from. If lazy is true,
+	 * the data for a chunk is only read from the backend when that chunk loads, and is unloaded again when the chunk
+	 * unloads, so that memory usage follows the loaded chunks rather than all stored data. Looking up data in a chunk
+	 * which is not loaded reads it from the backend, and it is kept until the next save or for up to 30 seconds.
+	 * Changed data for unloaded chunks is kept until the next call to {@link BlockDataManager#save()}.
+	 * If lazy is false, all data is loaded immediately.
+	 * @param backend The BlockDataBackend to load from, and save to when save is called
+	 * @param lazy Whether to load data only for loaded chunks
+	 */
+	public BlockDataManager(BlockDataBackend backend, boolean lazy) {
+		this(backend, lazy, null);
+	}
+	
+	/**
+	 * Create a BlockDataManager instance with a storage backend and a journal. Every change to a DataBlock is appended
+	 * to the journal as it happens and synced to disk shortly after on a separate thread, so changes made since the last
+	 * save are not lost if the server crashes. On construction, any changes left in the journal are applied to the
+	 * backend before loading. Each completed save removes the part of the journal it covers, and the
+	 * BlockDataManager saves itself every 5 minutes so the journal does not grow without bound.
+	 * @param backend The BlockDataBackend to load from, and save to when save is called
+	 * @param lazy Whether to load data only for loaded chunks
+	 * @param journal The directory to store the journal in, or null to not use a journal
+	 */
+	public BlockDataManager(BlockDataBackend backend, boolean lazy, Path journal) {
+		this(RedLib.getInstance(), backend, lazy, journal);
+	}
+	
+	/**
+	 * Create a BlockDataManager instance owned by a specific plugin, which its listeners and tasks will be registered
+	 * with. Use this if RedLib is shaded into your plugin rather than installed on the server.
+	 * @param plugin The plugin to register listeners and tasks with
+	 * @param backend The BlockDataBackend to load from, and save to when save is called, or null to not persist data
+	 * @param lazy Whether to load data only for loaded chunks
+	 * @param journal The directory to store the journal in, or null to not use a journal
+	 */
+	public BlockDataManager(Plugin plugin, BlockDataBackend backend, boolean lazy, Path journal) {
+		this.plugin = plugin;
+		this.backend = backend;
+		this.lazy = lazy && backend != null;
+		Bukkit.getPluginManager().registerEvents(this, plugin);
+		if (backend == null) {
 			return;
 		}
-		try {
-			if (!Files.exists(saveFile.getParent())) {
-				Files.createDirectories(saveFile.getParent());
+		if (journal != null) {
+			try {
+				this.journal = new BlockDataJournal(journal);
+				this.journal.replay(backend);
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-			config = YamlConfiguration.loadConfiguration(saveFile.toFile());
+			tasks.add(Bukkit.getScheduler().scheduleSyncRepeatingTask(plugin, this::saveAsync, 6000, 6000));
+		}
+		if (!lazy) {
 			load();
-		} catch (IOException e) {
-			e.printStackTrace();
+			return;
 		}
+		for (World world : Bukkit.getWorlds()) {
+			for (Chunk chunk : world.getLoadedChunks()) {
+				loadChunk(new ChunkPosition(chunk));
+			}
+		}
+		tasks.add(Bukkit.getScheduler().scheduleSyncRepeatingTask(plugin, this::unloadProbed, 600, 600));
 	}
 	
 	/**
@@ -62,60 +151,346 @@ public class BlockDataManager implements Listener {
 	 * construct it this way. Calling {@link BlockDataManager#save()} or {@link BlockDataManager#load()} will cause an error.
 	 */
 	public BlockDataManager() {
-		this(null);
+		this((BlockDataBackend) null);
+	}
+	
+	/**
+	 * @return The BlockDataBackend this BlockDataManager saves to and loads from, or null if it has none
+	 */
+	public BlockDataBackend getBackend() {
+		return backend;
+	}
+	
+	/**
+	 * @return Whether this BlockDataManager only keeps data for loaded chunks in memory
+	 */
+	public boolean isLazy() {
+		return lazy;
 	}
 	
 	/**
-	 * Loads all data from the save file. This should rarely be needed, as calling the constructor with a path
-	 * will automatically load all block data.
+	 * Loads all data from the backend. This should rarely be needed, as calling the constructor with a path
+	 * or backend will automatically load all block data. Data for worlds which are not yet loaded will be
+	 * loaded when the world loads.
 	 */
 	public void load() {
-		config.getKeys(false).forEach(s -> {
-			LocationUtils.fromStringLater(s, l -> {
-				Block block = l.getBlock();
-				DataBlock db = new DataBlock(block, this);
-				Map<String, Object> data = new HashMap<>();
-				ConfigurationSection section = config.getConfigurationSection(s);
-				section.getKeys(false).forEach(key -> {
-					data.put(key, section.get(key));
-				});
-				db.data = data;
-				map.set(db.getBlock().getLocation(), db);
+		try {
+			backend.loadAll().forEach(this::loadChunk);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private WorldIndex getIndex(String world) {
+		return worlds.computeIfAbsent(world, k -> new WorldIndex());
+	}
+	
+	private void loadChunk(ChunkPosition pos) {
+		WorldIndex index = getIndex(pos.getWorldName());
+		if (index.loaded.containsKey(pos.toLong())) {
+			return;
+		}
+		index.loaded.put(pos.toLong(), pos);
+		Map<BlockPosition, Map<String, Object>> data = evicted.remove(pos);
+		if (data != null) {
+			dirty.add(pos);
+		} else if (saving.containsKey(pos)) {
+			data = saving.get(pos);
+		} else {
+			try {
+				data = backend.load(pos);
+			} catch (IOException e) {
+				index.loaded.remove(pos.toLong());
+				e.printStackTrace();
+				return;
+			}
+		}
+		loadChunk(pos, data);
+	}
+	
+	/**
+	 * Loads the data for a chunk which is being looked up directly. If the chunk is not loaded in its world, no
+	 * ChunkUnloadEvent will unload its data again, so it is remembered and unloaded by {@link #unloadProbed()}.
+	 */
+	private void probeChunk(String world, int x, int z) {
+		ChunkPosition pos = new ChunkPosition(world, x, z);
+		loadChunk(pos);
+		World bukkitWorld = Bukkit.getWorld(world);
+		if (bukkitWorld == null || !bukkitWorld.isChunkLoaded(x, z)) {
+			probed.add(pos);
+		}
+	}
+	
+	private void unloadProbed() {
+		if (probed.isEmpty()) {
+			return;
+		}
+		for (ChunkPosition pos : probed) {
+			World world = Bukkit.getWorld(pos.getWorldName());
+			if (world == null || !world.isChunkLoaded(pos.getX(), pos.getZ())) {
+				unloadChunk(pos);
+			}
+		}
+		probed.clear();
+	}
+	
+	private boolean isLoaded(WorldIndex index, int x, int z) {
+		return index != null && index.loaded.containsKey(ChunkPosition.pack(x >> 4, z >> 4));
+	}
+	
+	private void unloadChunk(ChunkPosition pos) {
+		WorldIndex index = worlds.get(pos.getWorldName());
+		if (index == null || index.loaded.remove(pos.toLong()) == null) {
+			return;
+		}
+		Set<DataBlock> set = index.chunks.remove(pos.toLong());
+		if (dirty.remove(pos)) {
+			evicted.put(pos, getData(set));
+		}
+		if (set != null) {
+			set.forEach(db -> {
+				Block block = db.getBlock();
+				index.blocks.remove(BlockPosition.pack(block.getX(), block.getY(), block.getZ()));
 			});
+		}
+	}
+	
+	private void loadChunk(ChunkPosition pos, Map<BlockPosition, Map<String, Object>> data) {
+		World world = Bukkit.getWorld(pos.getWorldName());
+		if (world == null) {
+			pending.computeIfAbsent(pos.getWorldName(), k -> new HashMap<>()).put(pos, data);
+			return;
+		}
+		data.forEach((p, d) -> {
+			DataBlock db = new DataBlock(p.getBlock(world), this);
+			db.load(d);
+			add(db);
 		});
 	}
 	
 	/**
-	 * Saves all data to the save file. Call this in your onDisable.
+	 * Saves all changed data to the backend, waiting for the save to finish. Only the chunks which have had data
+	 * added, changed, or removed since the last save are written. Use {@link BlockDataManager#close()} in your
+	 * onDisable instead, which also saves.
 	 */
 	public void save() {
-		config = new YamlConfiguration();
 		try {
-			map.getAll().forEach(b -> {
-				String key = LocationUtils.toString(b.getBlock());
-				b.data.forEach((k, v) -> {
-					config.set(key + "." + k, v);
-				});
+			saveAsync().join();
+		} catch (CompletionException e) {
+			e.getCause().printStackTrace();
+		}
+		if (journal != null) {
+			journal.flush().join();
+		}
+	}
+	
+	/**
+	 * Saves all changed data to the backend without blocking the calling thread. A snapshot of the changed chunks
+	 * is taken immediately, which is cheap since the data of each DataBlock is only copied once it is next modified.
+	 * The snapshot is then written to the backend on a separate thread. Saves are written in the order they were started.
+	 * Must be called from the main thread.
+	 * @return A CompletableFuture which is completed when the data has been written, or completed exceptionally
+	 * if it could not be written, in which case the changes will be written by the next save
+	 * @throws IllegalStateException if this BlockDataManager has been closed
+	 */
+	public CompletableFuture<Void> saveAsync() {
+		if (closed) {
+			throw new IllegalStateException("BlockDataManager has been closed");
+		}
+		unloadProbed();
+		if (dirty.size() == 0 && evicted.size() == 0) {
+			return CompletableFuture.completedFuture(null);
+		}
+		Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> data = new HashMap<>(evicted);
+		for (ChunkPosition pos : dirty) {
+			WorldIndex index = worlds.get(pos.getWorldName());
+			data.put(pos, getData(index == null ? null : index.chunks.get(pos.toLong())));
+		}
+		dirty.clear();
+		evicted.clear();
+		saving.putAll(data);
+		int id = ++saveCount;
+		long segment = journal == null ? -1 : journal.rotate();
+		if (saveExecutor == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+				Thread thread = new Thread(r, "RedLib BlockDataManager save thread");
+				thread.setDaemon(true);
+				return thread;
+			});
+			executor.allowCoreThreadTimeOut(true);
+			saveExecutor = executor;
+		}
+		CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+			try {
+				backend.save(data);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}, saveExecutor);
+		// Completed only once the save has been queued to be finished, so close can wait for that too
+		lastSave = future.whenComplete((v, e) -> {
+			finishedSaves.add(() -> {
+				finishSave(data, e != null);
+				if (journal == null) {
+					return;
+				}
+				if (e != null) {
+					journalHold = saveCount;
+				} else if (id > journalHold) {
+					journal.compact(segment);
+				}
 			});
-			config.save(file.toFile());
+			if (Bukkit.isPrimaryThread()) {
+				runFinishedSaves();
+			} else if (plugin.isEnabled()) {
+				Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, this::runFinishedSaves);
+			}
+		});
+		return future;
+	}
+	
+	private void runFinishedSaves() {
+		Runnable finish;
+		while ((finish = finishedSaves.poll()) != null) {
+			finish.run();
+		}
+	}
+	
+	/**
+	 * Saves all changed data, waiting for any save already in progress, then closes the journal and the backend.
+	 * Plugins must call this in their onDisable, since the journal's thread and files and any connections held by
+	 * the backend are otherwise never released, and the journal is not compacted. This BlockDataManager stops
+	 * listening for events and cannot be saved again once it is closed.
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		HandlerList.unregisterAll(this);
+		tasks.forEach(Bukkit.getScheduler()::cancelTask);
+		tasks.clear();
+		if (backend == null) {
+			closed = true;
+			return;
+		}
+		saveAsync();
+		closed = true;
+		try {
+			lastSave.join();
+		} catch (CompletionException e) {
+			e.getCause().printStackTrace();
+		}
+		// The plugin may already be disabled, so completed saves are finished here rather than by a scheduled task
+		runFinishedSaves();
+		if (journal != null) {
+			journal.close();
+		}
+		if (saveExecutor != null) {
+			saveExecutor.shutdown();
+		}
+		try {
+			backend.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 	
+	private void finishSave(Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> data, boolean failed) {
+		data.forEach((pos, blocks) -> {
+			if (!saving.remove(pos, blocks) || !failed) {
+				return;
+			}
+			if (!dirty.contains(pos) && !evicted.containsKey(pos)) {
+				evicted.put(pos, blocks);
+			}
+		});
+	}
+	
+	private Map<BlockPosition, Map<String, Object>> getData(Set<DataBlock> set) {
+		Map<BlockPosition, Map<String, Object>> blocks = new HashMap<>();
+		if (set != null) {
+			set.forEach(db -> blocks.put(new BlockPosition(db.getBlock()), db.snapshot()));
+		}
+		return blocks;
+	}
+	
+	protected void add(DataBlock db) {
+		Block block = db.getBlock();
+		WorldIndex index = getIndex(block.getWorld().getName());
+		long chunk = ChunkPosition.pack(block.getX() >> 4, block.getZ() >> 4);
+		if (lazy && !index.loaded.containsKey(chunk)) {
+			probeChunk(block.getWorld().getName(), block.getX() >> 4, block.getZ() >> 4);
+		}
+		DataBlock old = index.blocks.put(BlockPosition.pack(block.getX(), block.getY(), block.getZ()), db);
+		Set<DataBlock> set = index.chunks.computeIfAbsent(chunk, k -> new HashSet<>());
+		if (old != null) {
+			set.remove(old);
+		}
+		set.add(db);
+	}
+	
+	protected void setDirty(DataBlock db) {
+		Block block = db.getBlock();
+		if (lazy && !isLoaded(worlds.get(block.getWorld().getName()), block.getX(), block.getZ())) {
+			// The chunk was unloaded after this DataBlock was loaded, so the rest of its data has to be loaded again
+			// before the chunk is saved
+			add(db);
+		}
+		dirty.add(new ChunkPosition(block));
+		if (journal != null) {
+			journal.put(block.getWorld().getName(), new BlockPosition(block), db.snapshot());
+		}
+	}
+	
 	/**
 	 * Gets an existing DataBlock, returning null if that Block has no data attached to it.
 	 * @param block The block to check
 	 * @return A DataBlock, or null
 	 */
 	public DataBlock getExisting(Block block) {
-		Set<DataBlock> blocks = map.get(block.getLocation());
-		for (DataBlock db : blocks) {
-			if (db.getBlock().equals(block)) {
-				return db;
+		int x = block.getX();
+		int z = block.getZ();
+		String world = block.getWorld().getName();
+		WorldIndex index = worlds.get(world);
+		if (lazy && !isLoaded(index, x, z)) {
+			probeChunk(world, x >> 4, z >> 4);
+			index = worlds.get(world);
+		}
+		if (index == null) {
+			return null;
+		}
+		return index.blocks.get(BlockPosition.pack(x, block.getY(), z));
+	}
+	
+	/**
+	 * Gets the existing DataBlocks for many blocks at once, skipping blocks which have no data attached to them
+	 * @param blocks The blocks to check
+	 * @return A list of the DataBlocks attached to the given blocks, in the same order
+	 */
+	public List<DataBlock> getExisting(Collection<Block> blocks) {
+		List<DataBlock> list = new ArrayList<>();
+		World world = null;
+		WorldIndex index = null;
+		for (Block block : blocks) {
+			if (!block.getWorld().equals(world)) {
+				world = block.getWorld();
+				index = worlds.get(world.getName());
+			}
+			int x = block.getX();
+			int z = block.getZ();
+			if (lazy && !isLoaded(index, x, z)) {
+				probeChunk(world.getName(), x >> 4, z >> 4);
+				index = worlds.get(world.getName());
+			}
+			if (index == null) {
+				continue;
+			}
+			DataBlock db = index.blocks.get(BlockPosition.pack(x, block.getY(), z));
+			if (db != null) {
+				list.add(db);
 			}
 		}
-		return null;
+		return list;
 	}
 	
 	/**
@@ -133,24 +508,106 @@ public class BlockDataManager implements Listener {
 	 * @param db The DataBlock to remove
 	 */
 	public void remove(DataBlock db) {
-		map.remove(db.getBlock().getLocation(), db);
+		Block block = db.getBlock();
+		String world = block.getWorld().getName();
+		WorldIndex index = worlds.get(world);
+		long key = BlockPosition.pack(block.getX(), block.getY(), block.getZ());
+		if (lazy && !isLoaded(index, block.getX(), block.getZ())) {
+			// As in setDirty, the chunk's data is loaded again, and the DataBlock loaded in place of this one is removed
+			probeChunk(world, block.getX() >> 4, block.getZ() >> 4);
+			index = worlds.get(world);
+			if (index != null && index.blocks.get(key) != null) {
+				db = index.blocks.get(key);
+			}
+		}
+		if (index != null) {
+			if (index.blocks.get(key) == db) {
+				index.blocks.remove(key);
+			}
+			long chunk = ChunkPosition.pack(block.getX() >> 4, block.getZ() >> 4);
+			Set<DataBlock> set = index.chunks.get(chunk);
+			if (set != null && set.remove(db) && set.size() == 0) {
+				index.chunks.remove(chunk);
+			}
+		}
+		dirty.add(new ChunkPosition(block));
+		if (journal != null) {
+			journal.delete(block.getWorld().getName(), new BlockPosition(block));
+		}
 	}
 	
 	/**
 	 * Gets all the DataBlocks near an approximate location
 	 * @param loc The location to check near
 	 * @param radius The radius to check in
-	 * @return
+	 * @return All DataBlocks in the chunks within the radius of the location
+	 * @implNote The radius is not exact, no distance checks are made. Make sure you do your own distance checks
+	 * if needed.
 	 */
 	public Set<DataBlock> getNearby(Location loc, int radius) {
-		return map.getNearby(loc, radius);
+		Set<DataBlock> set = new HashSet<>();
+		WorldIndex index = worlds.get(loc.getWorld().getName());
+		if (index == null) {
+			return set;
+		}
+		int minX = (loc.getBlockX() - radius) >> 4;
+		int minZ = (loc.getBlockZ() - radius) >> 4;
+		int maxX = (loc.getBlockX() + radius) >> 4;
+		int maxZ = (loc.getBlockZ() + radius) >> 4;
+		for (int cx = minX; cx <= maxX; cx++) {
+			for (int cz = minZ; cz <= maxZ; cz++) {
+				Set<DataBlock> chunk = index.chunks.get(ChunkPosition.pack(cx, cz));
+				if (chunk != null) {
+					set.addAll(chunk);
+				}
+			}
+		}
+		return set;
 	}
 	
 	/**
-	 * @return A set of all DataBlocks managed by this BlockDataManager
+	 * @return A set of all DataBlocks managed by this BlockDataManager. If this BlockDataManager is lazy,
+	 * only DataBlocks in loaded chunks are included.
 	 */
 	public Set<DataBlock> getAll() {
-		return map.getAll();
+		Set<DataBlock> set = new HashSet<>();
+		worlds.values().forEach(index -> index.blocks.forEachValue(set::add));
+		return set;
+	}
+	
+	@EventHandler
+	public void onWorldLoad(WorldLoadEvent e) {
+		Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> data = pending.remove(e.getWorld().getName());
+		if (data != null) {
+			data.forEach(this::loadChunk);
+		}
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onChunkLoad(ChunkLoadEvent e) {
+		if (lazy) {
+			ChunkPosition pos = new ChunkPosition(e.getChunk());
+			probed.remove(pos);
+			loadChunk(pos);
+		}
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onChunkUnload(ChunkUnloadEvent e) {
+		if (lazy) {
+			unloadChunk(new ChunkPosition(e.getChunk()));
+		}
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onWorldUnload(WorldUnloadEvent e) {
+		if (!lazy) {
+			return;
+		}
+		WorldIndex index = worlds.get(e.getWorld().getName());
+		if (index != null) {
+			index.loaded.values().forEach(this::unloadChunk);
+		}
 	}
 	
 	@EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
@@ -165,7 +622,7 @@ public class BlockDataManager implements Listener {
 			e.setCancelled(true);
 			return;
 		}
-		map.remove(e.getBlock().getLocation(), db);
+		remove(db);
 	}
 	
 	@EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
@@ -180,85 +637,99 @@ public class BlockDataManager implements Listener {
 			e.setCancelled(true);
 			return;
 		}
-		map.remove(e.getBlock().getLocation(), db);
+		remove(db);
 	}
 	
 	@EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
 	public void onEntityExplode(EntityExplodeEvent e) {
-		List<Block> toRemove = new ArrayList<>();
-		e.blockList().forEach(block -> {
-			DataBlock db = getExisting(block);
-			if (db == null) {
-				return;
-			}
-			DataBlockDestroyEvent event = new DataBlockDestroyEvent(db, DestroyCause.EXPLOSION);
-			Bukkit.getPluginManager().callEvent(event);
-			if (event.isCancelled()) {
-				toRemove.add(block);
-				return;
-			}
-			map.remove(block.getLocation(), getExisting(block));
-		});
-		e.blockList().removeAll(toRemove);
+		explode(e.blockList());
 	}
 	
 	@EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
 	public void onBlockExplode(BlockExplodeEvent e) {
-		List<Block> toRemove = new ArrayList<>();
-		e.blockList().forEach(block -> {
-			DataBlock db = getExisting(block);
-			if (db == null) {
-				return;
-			}
-			DataBlockDestroyEvent event = new DataBlockDestroyEvent(db, DestroyCause.EXPLOSION);
-			Bukkit.getPluginManager().callEvent(event);
-			if (event.isCancelled()) {
-				toRemove.add(block);
-				return;
-			}
-			map.remove(block.getLocation(), getExisting(block));
-		});
-		e.blockList().removeAll(toRemove);
+		explode(e.blockList());
 	}
 	
 	@EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
 	public void onBlockPush(BlockPistonExtendEvent e) {
-		e.getBlocks().forEach(block -> {
-			DataBlock db = getExisting(block);
-			if (db == null) {
-				return;
-			}
-			Location to = block.getRelative(e.getDirection()).getLocation();
-			DataBlockMoveEvent event = new DataBlockMoveEvent(db, to);
-			Bukkit.getPluginManager().callEvent(event);
-			if (event.isCancelled()) {
-				e.setCancelled(true);
-				return;
-			}
-			map.remove(db.getBlock().getLocation(), db);
-			db.setBlock(to.getBlock());
-			map.set(db.getBlock().getLocation(), db);
-		});
+		move(e, e.getBlocks());
 	}
 	
 	@EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
 	public void onBlockPull(BlockPistonRetractEvent e) {
-		e.getBlocks().forEach(block -> {
-			DataBlock db = getExisting(block);
-			if (db == null) {
-				return;
-			}
-			Location to = block.getRelative(e.getDirection()).getLocation();
-			DataBlockMoveEvent event = new DataBlockMoveEvent(db, to);
+		move(e, e.getBlocks());
+	}
+	
+	private void explode(List<Block> blocks) {
+		List<DataBlock> affected = getExisting(blocks);
+		if (affected.size() == 0) {
+			return;
+		}
+		List<DataBlock> destroyed = new ArrayList<>(affected);
+		if (DataBlockDestroyEvent.getHandlerList().getRegisteredListeners().length > 0) {
+			destroyed.removeIf(db -> {
+				DataBlockDestroyEvent event = new DataBlockDestroyEvent(db, DestroyCause.EXPLOSION);
+				Bukkit.getPluginManager().callEvent(event);
+				return event.isCancelled();
+			});
+		}
+		Set<DataBlock> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+		if (destroyed.size() > 0) {
+			DataBlockMultiDestroyEvent event = new DataBlockMultiDestroyEvent(destroyed, DestroyCause.EXPLOSION);
 			Bukkit.getPluginManager().callEvent(event);
-			if (event.isCancelled()) {
-				e.setCancelled(true);
-				return;
+			if (!event.isCancelled()) {
+				removed.addAll(event.getDataBlocks());
 			}
-			map.remove(db.getBlock().getLocation(), db);
-			db.setBlock(to.getBlock());
-			map.set(db.getBlock().getLocation(), db);
+		}
+		Set<Block> spared = new HashSet<>();
+		for (DataBlock db : affected) {
+			if (removed.contains(db)) {
+				remove(db);
+			} else {
+				spared.add(db.getBlock());
+			}
+		}
+		if (spared.size() > 0) {
+			blocks.removeIf(spared::contains);
+		}
+	}
+	
+	private void move(BlockPistonEvent e, List<Block> blocks) {
+		List<DataBlock> moving = getExisting(blocks);
+		if (moving.size() == 0) {
+			return;
+		}
+		BlockFace direction = e.getDirection();
+		if (DataBlockMoveEvent.getHandlerList().getRegisteredListeners().length > 0) {
+			for (DataBlock db : moving) {
+				DataBlockMoveEvent event = new DataBlockMoveEvent(db, db.getBlock().getRelative(direction).getLocation());
+				Bukkit.getPluginManager().callEvent(event);
+				if (event.isCancelled()) {
+					e.setCancelled(true);
+					return;
+				}
+			}
+		}
+		DataBlockMultiMoveEvent event = new DataBlockMultiMoveEvent(moving, direction);
+		Bukkit.getPluginManager().callEvent(event);
+		if (event.isCancelled()) {
+			e.setCancelled(true);
+			return;
+		}
+		moving.forEach(this::remove);
+		moving.forEach(db -> {
+			db.setBlock(db.getBlock().getRelative(direction));
+			add(db);
+			setDirty(db);
 		});
 	}
 	
+	private static class WorldIndex {
+		
+		private LongHashMap<DataBlock> blocks = new LongHashMap<>();
+		private LongHashMap<Set<DataBlock>> chunks = new LongHashMap<>();
+		private LongHashMap<ChunkPosition> loaded = new LongHashMap<>();
+		
+	}
+	
 }
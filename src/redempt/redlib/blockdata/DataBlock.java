@@ -2,8 +2,13 @@ package redempt.redlib.blockdata;
 
 import org.bukkit.block.Block;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * Represents a Block with various data attached to it
@@ -11,7 +16,22 @@ import java.util.Map;
  */
 public class DataBlock {
 	
-	protected Map<String, Object> data = new HashMap<>();
+	private static final String[] NO_KEYS = {};
+	private static final byte OBJECT = 0;
+	private static final byte INT = 1;
+	private static final byte LONG = 2;
+	private static final byte DOUBLE = 3;
+	private static final byte BOOLEAN = 4;
+	
+	// Entries are stored in parallel arrays rather than a map, since most DataBlocks only hold one or two keys.
+	// Primitive values are stored as raw bits in primitives, other values in objects. Either array is only
+	// allocated once a value of its kind is set.
+	private String[] keys = NO_KEYS;
+	private byte[] types;
+	private long[] primitives;
+	private Object[] objects;
+	private int size = 0;
+	private boolean shared = false;
 	private Block block;
 	private BlockDataManager manager;
 	
@@ -27,9 +47,65 @@ public class DataBlock {
 	 * @param data The data to put
 	 */
 	public void set(String key, Object data) {
-		if (this.data.put(key, data) == null && this.data.size() == 1) {
-			manager.map.set(block.getLocation(), this);
+		if (data instanceof Integer) {
+			setInt(key, (Integer) data);
+			return;
+		}
+		if (data instanceof Long) {
+			setLong(key, (Long) data);
+			return;
+		}
+		if (data instanceof Double) {
+			setDouble(key, (Double) data);
+			return;
 		}
+		if (data instanceof Boolean) {
+			setBoolean(key, (Boolean) data);
+			return;
+		}
+		int size = this.size;
+		int index = prepare(key, OBJECT);
+		if (objects == null) {
+			objects = new Object[keys.length];
+		}
+		objects[index] = data;
+		changed(size == 0);
+	}
+	
+	/**
+	 * Sets an int value in this DataBlock without boxing it
+	 * @param key The key to put the data at
+	 * @param data The data to put
+	 */
+	public void setInt(String key, int data) {
+		setPrimitive(key, INT, data);
+	}
+	
+	/**
+	 * Sets a long value in this DataBlock without boxing it
+	 * @param key The key to put the data at
+	 * @param data The data to put
+	 */
+	public void setLong(String key, long data) {
+		setPrimitive(key, LONG, data);
+	}
+	
+	/**
+	 * Sets a double value in this DataBlock without boxing it
+	 * @param key The key to put the data at
+	 * @param data The data to put
+	 */
+	public void setDouble(String key, double data) {
+		setPrimitive(key, DOUBLE, Double.doubleToRawLongBits(data));
+	}
+	
+	/**
+	 * Sets a boolean value in this DataBlock without boxing it
+	 * @param key The key to put the data at
+	 * @param data The data to put
+	 */
+	public void setBoolean(String key, boolean data) {
+		setPrimitive(key, BOOLEAN, data ? 1 : 0);
 	}
 	
 	/**
@@ -38,7 +114,8 @@ public class DataBlock {
 	 * @return The object mapped to the key
 	 */
 	public Object get(String key) {
-		return this.data.get(key);
+		int index = indexOf(key);
+		return index == -1 ? null : getValue(index);
 	}
 	
 	/**
@@ -47,7 +124,24 @@ public class DataBlock {
 	 * @return The int mapped to the key
 	 */
 	public int getInt(String key) {
-		return (int) this.data.get(key);
+		int index = indexOf(key);
+		if (index != -1 && types[index] == INT) {
+			return (int) primitives[index];
+		}
+		return (int) get(key);
+	}
+	
+	/**
+	 * Gets a long mapped to a certain key
+	 * @param key The key
+	 * @return The long mapped to the key
+	 */
+	public long getLong(String key) {
+		int index = indexOf(key);
+		if (index != -1 && (types[index] == LONG || types[index] == INT)) {
+			return primitives[index];
+		}
+		return (long) get(key);
 	}
 	
 	/**
@@ -56,7 +150,7 @@ public class DataBlock {
 	 * @return The String mapped to the key
 	 */
 	public String getString(String key) {
-		return (String) this.data.get(key);
+		return (String) get(key);
 	}
 	
 	/**
@@ -65,7 +159,11 @@ public class DataBlock {
 	 * @return The boolean mapped to the key
 	 */
 	public boolean getBoolean(String key) {
-		return (boolean) this.data.get(key);
+		int index = indexOf(key);
+		if (index != -1 && types[index] == BOOLEAN) {
+			return primitives[index] != 0;
+		}
+		return (boolean) get(key);
 	}
 	
 	/**
@@ -74,7 +172,11 @@ public class DataBlock {
 	 * @return The double mapped to the key
 	 */
 	public double getDouble(String key) {
-		return (double) this.data.get(key);
+		int index = indexOf(key);
+		if (index != -1 && types[index] == DOUBLE) {
+			return Double.longBitsToDouble(primitives[index]);
+		}
+		return (double) get(key);
 	}
 	
 	/**
@@ -84,10 +186,31 @@ public class DataBlock {
 	 * @param key The key
 	 */
 	public void remove(String key) {
-		this.data.remove(key);
-		if (this.data.size() == 0) {
-			manager.map.remove(block.getLocation(), this);
+		int index = indexOf(key);
+		if (index == -1) {
+			return;
+		}
+		copyIfShared();
+		size--;
+		if (index != size) {
+			keys[index] = keys[size];
+			types[index] = types[size];
+			if (primitives != null) {
+				primitives[index] = primitives[size];
+			}
+			if (objects != null) {
+				objects[index] = objects[size];
+			}
+		}
+		keys[size] = null;
+		if (objects != null) {
+			objects[size] = null;
+		}
+		if (size == 0) {
+			manager.remove(this);
+			return;
 		}
+		manager.setDirty(this);
 	}
 	
 	/**
@@ -104,6 +227,144 @@ public class DataBlock {
 		return block;
 	}
 	
+	/**
+	 * Gets a read-only view of the data in this DataBlock without copying it, so it can be saved while this DataBlock
+	 * continues to be modified. The next modification to this DataBlock will copy its storage first, leaving the returned
+	 * map unchanged.
+	 * @return A map view of the current data
+	 */
+	protected Map<String, Object> snapshot() {
+		shared = true;
+		return new Snapshot(keys, types, primitives, objects, size);
+	}
+	
+	/**
+	 * Replaces the data in this DataBlock with the contents of a map, without notifying the BlockDataManager
+	 * @param data The data to load
+	 */
+	protected void load(Map<String, Object> data) {
+		keys = new String[data.size()];
+		types = new byte[data.size()];
+		primitives = null;
+		objects = null;
+		size = 0;
+		shared = false;
+		data.forEach((k, v) -> {
+			int index = size++;
+			keys[index] = k.intern();
+			store(index, v);
+		});
+	}
+	
+	private void store(int index, Object value) {
+		if (value instanceof Integer) {
+			storePrimitive(index, INT, (Integer) value);
+		} else if (value instanceof Long) {
+			storePrimitive(index, LONG, (Long) value);
+		} else if (value instanceof Double) {
+			storePrimitive(index, DOUBLE, Double.doubleToRawLongBits((Double) value));
+		} else if (value instanceof Boolean) {
+			storePrimitive(index, BOOLEAN, (Boolean) value ? 1 : 0);
+		} else {
+			if (objects == null) {
+				objects = new Object[keys.length];
+			}
+			types[index] = OBJECT;
+			objects[index] = value;
+		}
+	}
+	
+	private void storePrimitive(int index, byte type, long bits) {
+		if (primitives == null) {
+			primitives = new long[keys.length];
+		}
+		types[index] = type;
+		primitives[index] = bits;
+		if (objects != null) {
+			objects[index] = null;
+		}
+	}
+	
+	private void setPrimitive(String key, byte type, long bits) {
+		int size = this.size;
+		int index = prepare(key, type);
+		storePrimitive(index, type, bits);
+		changed(size == 0);
+	}
+	
+	private int indexOf(String key) {
+		for (int i = 0; i < size; i++) {
+			if (keys[i] == key) {
+				return i;
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			if (keys[i].equals(key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private int prepare(String key, byte type) {
+		copyIfShared();
+		int index = indexOf(key);
+		if (index != -1) {
+			types[index] = type;
+			return index;
+		}
+		if (size == keys.length) {
+			int capacity = Math.max(1, size * 2);
+			keys = Arrays.copyOf(keys, capacity);
+			types = types == null ? new byte[capacity] : Arrays.copyOf(types, capacity);
+			if (primitives != null) {
+				primitives = Arrays.copyOf(primitives, capacity);
+			}
+			if (objects != null) {
+				objects = Arrays.copyOf(objects, capacity);
+			}
+		}
+		keys[size] = key.intern();
+		types[size] = type;
+		return size++;
+	}
+	
+	private void changed(boolean first) {
+		if (first) {
+			manager.add(this);
+		}
+		manager.setDirty(this);
+	}
+	
+	private Object getValue(int index) {
+		return getValue(types[index], primitives == null ? 0 : primitives[index], objects == null ? null : objects[index]);
+	}
+	
+	private static Object getValue(byte type, long bits, Object object) {
+		switch (type) {
+			case INT:
+				return (int) bits;
+			case LONG:
+				return bits;
+			case DOUBLE:
+				return Double.longBitsToDouble(bits);
+			case BOOLEAN:
+				return bits != 0;
+			default:
+				return object;
+		}
+	}
+	
+	private void copyIfShared() {
+		if (shared) {
+			keys = keys.clone();
+			types = types == null ? null : types.clone();
+			primitives = primitives == null ? null : primitives.clone();
+			objects = objects == null ? null : objects.clone();
+			shared = false;
+		}
+	}
+	
 	protected void setBlock(Block block) {
 		this.block = block;
 	}
@@ -115,4 +376,58 @@ public class DataBlock {
 		return manager;
 	}
 	
+	private static class Snapshot extends AbstractMap<String, Object> {
+		
+		private String[] keys;
+		private byte[] types;
+		private long[] primitives;
+		private Object[] objects;
+		private int size;
+		
+		public Snapshot(String[] keys, byte[] types, long[] primitives, Object[] objects, int size) {
+			this.keys = keys;
+			this.types = types;
+			this.primitives = primitives;
+			this.objects = objects;
+			this.size = size;
+		}
+		
+		@Override
+		public Set<Entry<String, Object>> entrySet() {
+			return new AbstractSet<Entry<String, Object>>() {
+				
+				@Override
+				public Iterator<Entry<String, Object>> iterator() {
+					return new Iterator<Entry<String, Object>>() {
+						
+						private int index = 0;
+						
+						@Override
+						public boolean hasNext() {
+							return index < size;
+						}
+						
+						@Override
+						public Entry<String, Object> next() {
+							if (index >= size) {
+								throw new NoSuchElementException();
+							}
+							int i = index++;
+							Object value = getValue(types[i], primitives == null ? 0 : primitives[i], objects == null ? null : objects[i]);
+							return new SimpleImmutableEntry<>(keys[i], value);
+						}
+						
+					};
+				}
+				
+				@Override
+				public int size() {
+					return size;
+				}
+				
+			};
+		}
+		
+	}
+	
 }
@@ -0,0 +1,33 @@
+package redempt.redlib.blockdata.backend;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes files by writing to a temporary file and renaming it over the target, so a crash or a concurrent read
+ * never sees a partially written file
+ * @author Redempt
+ */
+class AtomicWriter {
+	
+	/**
+	 * Atomically replaces the contents of a file, creating its parent directories if needed
+	 * @param file The file to write
+	 * @param bytes The new contents of the file
+	 * @throws IOException If the file could not be written
+	 */
+	public static void write(Path file, byte[] bytes) throws IOException {
+		Files.createDirectories(file.getParent());
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.write(temp, bytes);
+		try {
+			Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+}
@@ -0,0 +1,310 @@
+package redempt.redlib.blockdata.backend;
+
+import redempt.redlib.blockdata.backend.BinaryCodec.StringTable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A {@link BlockDataBackend} which stores data in a compact binary format, with one file per 32x32 chunk region.
+ * Each file starts with a header holding a table of every key, world name and string value it uses, and the offset
+ * of each chunk's data, so a single chunk can be read without decoding the rest of the file. The data for each chunk
+ * stores the block positions relative to the chunk, the keys and the typed values, each as a separate column.
+ * @author Redempt
+ */
+class BinaryBackend implements BlockDataBackend {
+	
+	private static final int MAGIC = 0x524C4244;
+	private static final int VERSION = 1;
+	// The magic number, the version and the length of the header
+	private static final int PREFIX_LENGTH = 9;
+	
+	private Path directory;
+	
+	protected BinaryBackend(Path directory) {
+		this.directory = directory;
+	}
+	
+	private Path getFile(String world, int regionX, int regionZ) {
+		return directory.resolve(world).resolve(regionX + "." + regionZ + ".rldb");
+	}
+	
+	@Override
+	public Map<BlockPosition, Map<String, Object>> load(ChunkPosition chunk) throws IOException {
+		int regionX = chunk.getX() >> 5;
+		int regionZ = chunk.getZ() >> 5;
+		Path file = getFile(chunk.getWorldName(), regionX, regionZ);
+		if (!Files.exists(file)) {
+			return new HashMap<>();
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer prefix = read(channel, 0, PREFIX_LENGTH);
+			if (prefix.getInt() != MAGIC) {
+				throw new IOException("Not a RedLib block data file");
+			}
+			int version = prefix.get();
+			if (version != VERSION) {
+				throw new IOException("Unsupported block data format version " + version);
+			}
+			int headerLength = prefix.getInt();
+			Header header = Header.read(stream(read(channel, PREFIX_LENGTH, headerLength)), regionX, regionZ);
+			int index = header.indexOf(chunk);
+			if (index == -1) {
+				return new HashMap<>();
+			}
+			ByteBuffer data = read(channel, PREFIX_LENGTH + headerLength + header.offsets[index], header.lengths[index]);
+			return readChunk(stream(data), chunk, header.strings);
+		}
+	}
+	
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Block data file is truncated");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+	
+	private static DataInputStream stream(ByteBuffer buffer) {
+		return new DataInputStream(new ByteArrayInputStream(buffer.array(), buffer.position(), buffer.remaining()));
+	}
+	
+	@Override
+	public Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> loadAll() throws IOException {
+		Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> data = new HashMap<>();
+		if (!Files.exists(directory)) {
+			return data;
+		}
+		List<Path> files;
+		try (Stream<Path> stream = Files.walk(directory)) {
+			files = stream.filter(p -> p.getFileName().toString().endsWith(".rldb")).collect(Collectors.toList());
+		}
+		for (Path file : files) {
+			String[] split = file.getFileName().toString().split("\\.");
+			data.putAll(read(file, Integer.parseInt(split[0]), Integer.parseInt(split[1])));
+		}
+		return data;
+	}
+	
+	@Override
+	public void save(Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> chunks) throws IOException {
+		Map<Path, List<ChunkPosition>> regions = new HashMap<>();
+		chunks.keySet().forEach(pos -> {
+			Path file = getFile(pos.getWorldName(), pos.getX() >> 5, pos.getZ() >> 5);
+			regions.computeIfAbsent(file, k -> new ArrayList<>()).add(pos);
+		});
+		for (Map.Entry<Path, List<ChunkPosition>> entry : regions.entrySet()) {
+			Path file = entry.getKey();
+			ChunkPosition first = entry.getValue().get(0);
+			Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> region = Files.exists(file)
+					? read(file, first.getX() >> 5, first.getZ() >> 5) : new HashMap<>();
+			for (ChunkPosition pos : entry.getValue()) {
+				Map<BlockPosition, Map<String, Object>> data = chunks.get(pos);
+				if (data.size() == 0) {
+					region.remove(pos);
+				} else {
+					region.put(pos, data);
+				}
+			}
+			if (region.size() == 0) {
+				Files.deleteIfExists(file);
+				continue;
+			}
+			AtomicWriter.write(file, write(first.getWorldName(), region));
+		}
+	}
+	
+	/**
+	 * Encodes the data for the chunks in a region
+	 * @param world The name of the world the region is in
+	 * @param region A map of the chunks in the region to the data stored in them
+	 * @return The encoded bytes
+	 * @throws IOException If the data could not be encoded
+	 */
+	static byte[] write(String world, Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> region) throws IOException {
+		StringTable strings = new StringTable();
+		int worldId = strings.getId(world);
+		ByteArrayOutputStream dataBytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream tableBytes = new ByteArrayOutputStream();
+		DataOutputStream tableOut = new DataOutputStream(tableBytes);
+		BinaryCodec.writeVarInt(tableOut, region.size());
+		for (Map.Entry<ChunkPosition, Map<BlockPosition, Map<String, Object>>> chunk : region.entrySet()) {
+			ChunkPosition pos = chunk.getKey();
+			int offset = dataBytes.size();
+			writeChunk(dataBytes, chunk.getValue(), strings);
+			tableOut.writeShort(((pos.getX() & 31) << 5) | (pos.getZ() & 31));
+			tableOut.writeInt(offset);
+			tableOut.writeInt(dataBytes.size() - offset);
+		}
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DataOutputStream headerOut = new DataOutputStream(headerBytes);
+		strings.write(headerOut);
+		BinaryCodec.writeVarInt(headerOut, worldId);
+		tableBytes.writeTo(headerOut);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeInt(headerBytes.size());
+		headerBytes.writeTo(out);
+		dataBytes.writeTo(out);
+		out.flush();
+		return bytes.toByteArray();
+	}
+	
+	private static void writeChunk(ByteArrayOutputStream bytes, Map<BlockPosition, Map<String, Object>> blocks, StringTable strings) throws IOException {
+		ByteArrayOutputStream positionBytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream countBytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream keyBytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream typeBytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream valueBytes = new ByteArrayOutputStream();
+		DataOutputStream positionOut = new DataOutputStream(positionBytes);
+		DataOutputStream countOut = new DataOutputStream(countBytes);
+		DataOutputStream keyOut = new DataOutputStream(keyBytes);
+		DataOutputStream valueOut = new DataOutputStream(valueBytes);
+		for (Map.Entry<BlockPosition, Map<String, Object>> block : blocks.entrySet()) {
+			BlockPosition bpos = block.getKey();
+			positionOut.writeByte(((bpos.getX() & 15) << 4) | (bpos.getZ() & 15));
+			BinaryCodec.writeVarInt(positionOut, BinaryCodec.zigzag(bpos.getY()));
+			BinaryCodec.writeVarInt(countOut, block.getValue().size());
+			for (Map.Entry<String, Object> entry : block.getValue().entrySet()) {
+				byte type = BinaryCodec.getType(entry.getValue());
+				BinaryCodec.writeVarInt(keyOut, strings.getId(entry.getKey()));
+				typeBytes.write(type);
+				BinaryCodec.writeValue(valueOut, type, entry.getValue(), strings);
+			}
+		}
+		DataOutputStream out = new DataOutputStream(bytes);
+		BinaryCodec.writeVarInt(out, blocks.size());
+		positionBytes.writeTo(out);
+		countBytes.writeTo(out);
+		keyBytes.writeTo(out);
+		typeBytes.writeTo(out);
+		valueBytes.writeTo(out);
+		out.flush();
+	}
+	
+	private static Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> read(Path file, int regionX, int regionZ) throws IOException {
+		return read(Files.readAllBytes(file), regionX, regionZ);
+	}
+	
+	/**
+	 * Decodes the data for the chunks in a region
+	 * @param bytes The bytes written by {@link BinaryBackend#write(String, Map)}
+	 * @param regionX The X coordinate of the region
+	 * @param regionZ The Z coordinate of the region
+	 * @return A map of the chunks in the region to the data stored in them
+	 * @throws IOException If the data is malformed
+	 */
+	static Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> read(byte[] bytes, int regionX, int regionZ) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a RedLib block data file");
+		}
+		int version = in.readByte();
+		if (version != VERSION) {
+			throw new IOException("Unsupported block data format version " + version);
+		}
+		// The length of the header is only needed to skip it when reading a single chunk
+		in.readInt();
+		Header header = Header.read(in, regionX, regionZ);
+		Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> region = new HashMap<>();
+		for (ChunkPosition chunk : header.chunks) {
+			region.put(chunk, readChunk(in, chunk, header.strings));
+		}
+		return region;
+	}
+	
+	private static Map<BlockPosition, Map<String, Object>> readChunk(DataInput in, ChunkPosition chunk, List<String> strings) throws IOException {
+		int blockCount = BinaryCodec.readVarInt(in);
+		int baseX = chunk.getX() << 4;
+		int baseZ = chunk.getZ() << 4;
+		BlockPosition[] positions = new BlockPosition[blockCount];
+		for (int i = 0; i < blockCount; i++) {
+			int packed = in.readUnsignedByte();
+			int y = BinaryCodec.unzigzag(BinaryCodec.readVarInt(in));
+			positions[i] = new BlockPosition(baseX | (packed >> 4), y, baseZ | (packed & 15));
+		}
+		int[] entryCounts = new int[blockCount];
+		int totalEntries = 0;
+		for (int i = 0; i < blockCount; i++) {
+			entryCounts[i] = BinaryCodec.readVarInt(in);
+			totalEntries += entryCounts[i];
+		}
+		String[] keys = new String[totalEntries];
+		for (int i = 0; i < totalEntries; i++) {
+			keys[i] = BinaryCodec.getString(strings, BinaryCodec.readVarInt(in));
+		}
+		byte[] types = new byte[totalEntries];
+		in.readFully(types);
+		Map<BlockPosition, Map<String, Object>> data = new HashMap<>();
+		int entry = 0;
+		for (int i = 0; i < blockCount; i++) {
+			Map<String, Object> block = new HashMap<>();
+			for (int j = 0; j < entryCounts[i]; j++) {
+				block.put(keys[entry], BinaryCodec.readValue(in, types[entry], strings));
+				entry++;
+			}
+			data.put(positions[i], block);
+		}
+		return data;
+	}
+	
+	/**
+	 * The strings used in a region file, and where the data for each of its chunks is stored
+	 */
+	private static class Header {
+		
+		private List<String> strings;
+		private ChunkPosition[] chunks;
+		private int[] offsets;
+		private int[] lengths;
+		
+		public static Header read(DataInput in, int regionX, int regionZ) throws IOException {
+			Header header = new Header();
+			header.strings = StringTable.read(in);
+			String world = BinaryCodec.getString(header.strings, BinaryCodec.readVarInt(in));
+			int chunkCount = BinaryCodec.readVarInt(in);
+			header.chunks = new ChunkPosition[chunkCount];
+			header.offsets = new int[chunkCount];
+			header.lengths = new int[chunkCount];
+			for (int i = 0; i < chunkCount; i++) {
+				int packed = in.readShort();
+				header.chunks[i] = new ChunkPosition(world, (regionX << 5) | ((packed >> 5) & 31), (regionZ << 5) | (packed & 31));
+				header.offsets[i] = in.readInt();
+				header.lengths[i] = in.readInt();
+			}
+			return header;
+		}
+		
+		public int indexOf(ChunkPosition chunk) {
+			for (int i = 0; i < chunks.length; i++) {
+				if (chunks[i].getX() == chunk.getX() && chunks[i].getZ() == chunk.getZ()) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,287 @@
+package redempt.redlib.blockdata.backend;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the compact binary encoding of DataBlock values shared by the binary storage formats.
+ * Values are written as a type tag followed by the value, with ints as zigzag varints and strings either
+ * inline or as indexes into a {@link StringTable}. Values of any other type fall back to YAML.
+ * @author Redempt
+ */
+class BinaryCodec {
+	
+	public static final byte TYPE_INT = 0;
+	public static final byte TYPE_LONG = 1;
+	public static final byte TYPE_DOUBLE = 2;
+	public static final byte TYPE_TRUE = 3;
+	public static final byte TYPE_FALSE = 4;
+	public static final byte TYPE_STRING = 5;
+	public static final byte TYPE_YAML = 6;
+	
+	/**
+	 * Gets the type tag which will be used to write a value
+	 * @param value The value
+	 * @return The type tag
+	 */
+	public static byte getType(Object value) {
+		if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return TYPE_INT;
+		}
+		if (value instanceof Long) {
+			return TYPE_LONG;
+		}
+		if (value instanceof Double || value instanceof Float) {
+			return TYPE_DOUBLE;
+		}
+		if (value instanceof Boolean) {
+			return (Boolean) value ? TYPE_TRUE : TYPE_FALSE;
+		}
+		if (value instanceof String) {
+			return TYPE_STRING;
+		}
+		return TYPE_YAML;
+	}
+	
+	/**
+	 * Writes a value without its type tag
+	 * @param out The output to write to
+	 * @param type The type tag of the value, from {@link BinaryCodec#getType(Object)}
+	 * @param value The value to write
+	 * @param strings The string table to write strings to, or null to write them inline
+	 * @throws IOException If the value could not be written
+	 */
+	public static void writeValue(DataOutput out, byte type, Object value, StringTable strings) throws IOException {
+		switch (type) {
+			case TYPE_INT:
+				writeVarInt(out, zigzag(((Number) value).intValue()));
+				break;
+			case TYPE_LONG:
+				out.writeLong((Long) value);
+				break;
+			case TYPE_DOUBLE:
+				out.writeDouble(((Number) value).doubleValue());
+				break;
+			case TYPE_TRUE:
+			case TYPE_FALSE:
+				break;
+			case TYPE_STRING:
+				if (strings != null) {
+					writeVarInt(out, strings.getId((String) value));
+				} else {
+					writeString(out, (String) value);
+				}
+				break;
+			default:
+				YamlConfiguration config = new YamlConfiguration();
+				config.set("value", value);
+				writeString(out, config.saveToString());
+		}
+	}
+	
+	/**
+	 * Writes a value along with its type tag
+	 * @param out The output to write to
+	 * @param value The value to write
+	 * @param strings The string table to write strings to, or null to write them inline
+	 * @throws IOException If the value could not be written
+	 */
+	public static void writeValue(DataOutput out, Object value, StringTable strings) throws IOException {
+		byte type = getType(value);
+		out.writeByte(type);
+		writeValue(out, type, value, strings);
+	}
+	
+	/**
+	 * Reads a value which was written without its type tag
+	 * @param in The input to read from
+	 * @param type The type tag of the value
+	 * @param strings The string table strings were written to, or null if they were written inline
+	 * @return The value
+	 * @throws IOException If the value could not be read
+	 */
+	public static Object readValue(DataInput in, byte type, List<String> strings) throws IOException {
+		switch (type) {
+			case TYPE_INT:
+				return unzigzag(readVarInt(in));
+			case TYPE_LONG:
+				return in.readLong();
+			case TYPE_DOUBLE:
+				return in.readDouble();
+			case TYPE_TRUE:
+				return true;
+			case TYPE_FALSE:
+				return false;
+			case TYPE_STRING:
+				return strings != null ? getString(strings, readVarInt(in)) : readString(in);
+			case TYPE_YAML:
+				YamlConfiguration config = new YamlConfiguration();
+				try {
+					config.loadFromString(readString(in));
+				} catch (InvalidConfigurationException e) {
+					throw new IOException(e);
+				}
+				return config.get("value");
+			default:
+				throw new IOException("Unknown value type " + type);
+		}
+	}
+	
+	/**
+	 * Reads a value along with its type tag
+	 * @param in The input to read from
+	 * @param strings The string table strings were written to, or null if they were written inline
+	 * @return The value
+	 * @throws IOException If the value could not be read
+	 */
+	public static Object readValue(DataInput in, List<String> strings) throws IOException {
+		return readValue(in, in.readByte(), strings);
+	}
+	
+	/**
+	 * Gets a string from a string table by its index
+	 * @param strings The string table
+	 * @param id The index of the string
+	 * @return The string
+	 * @throws IOException If the index is not in the table
+	 */
+	public static String getString(List<String> strings, int id) throws IOException {
+		if (id < 0 || id >= strings.size()) {
+			throw new IOException("Invalid string table index " + id);
+		}
+		return strings.get(id);
+	}
+	
+	/**
+	 * Writes an unsigned varint, using one byte for every 7 bits
+	 * @param out The output to write to
+	 * @param value The value to write
+	 * @throws IOException If the value could not be written
+	 */
+	public static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+	
+	/**
+	 * Reads an unsigned varint
+	 * @param in The input to read from
+	 * @return The value
+	 * @throws IOException If the value could not be read
+	 */
+	public static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+	
+	/**
+	 * Maps a signed int to an unsigned int so that numbers close to 0 have short varints
+	 * @param value The signed value
+	 * @return The zigzag encoded value
+	 */
+	public static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+	
+	/**
+	 * Reverses {@link BinaryCodec#zigzag(int)}
+	 * @param value The zigzag encoded value
+	 * @return The signed value
+	 */
+	public static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	/**
+	 * Writes a UTF-8 string prefixed by its length in bytes as a varint
+	 * @param out The output to write to
+	 * @param string The string to write
+	 * @throws IOException If the string could not be written
+	 */
+	public static void writeString(DataOutput out, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, bytes.length);
+		out.write(bytes);
+	}
+	
+	/**
+	 * Reads a string written by {@link BinaryCodec#writeString(DataOutput, String)}
+	 * @param in The input to read from
+	 * @return The string
+	 * @throws IOException If the string could not be read
+	 */
+	public static String readString(DataInput in) throws IOException {
+		byte[] bytes = new byte[readVarInt(in)];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Assigns indexes to strings in the order they are first seen, so each distinct string is only written once per file
+	 */
+	public static class StringTable {
+		
+		private Map<String, Integer> ids = new HashMap<>();
+		private List<String> strings = new ArrayList<>();
+		
+		/**
+		 * Gets the index of a string, adding it to the table if it is not already present
+		 * @param string The string
+		 * @return The index of the string
+		 */
+		public int getId(String string) {
+			return ids.computeIfAbsent(string, k -> {
+				strings.add(k);
+				return strings.size() - 1;
+			});
+		}
+		
+		/**
+		 * Writes the number of strings followed by every string in the table
+		 * @param out The output to write to
+		 * @throws IOException If the table could not be written
+		 */
+		public void write(DataOutput out) throws IOException {
+			writeVarInt(out, strings.size());
+			for (String string : strings) {
+				writeString(out, string);
+			}
+		}
+		
+		/**
+		 * Reads a table written by {@link StringTable#write(DataOutput)}
+		 * @param in The input to read from
+		 * @return The strings in the table, in index order
+		 * @throws IOException If the table could not be read
+		 */
+		public static List<String> read(DataInput in) throws IOException {
+			int size = readVarInt(in);
+			List<String> strings = new ArrayList<>(Math.min(size, 1024));
+			for (int i = 0; i < size; i++) {
+				strings.add(readString(in));
+			}
+			return strings;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,101 @@
+package redempt.redlib.blockdata.backend;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Represents a storage backend for a {@link redempt.redlib.blockdata.BlockDataManager}. Data is stored and retrieved
+ * per chunk, so that saving only needs to write the chunks which have changed.
+ * @author Redempt
+ */
+public interface BlockDataBackend {
+	
+	/**
+	 * Creates a backend which stores all data in a single YAML file. Every save rewrites the whole file.
+	 * This is the format used by {@link redempt.redlib.blockdata.BlockDataManager#BlockDataManager(Path)}.
+	 * @param file The path to the YAML file
+	 * @return The backend
+	 */
+	public static BlockDataBackend yaml(Path file) {
+		return new YamlBackend(file);
+	}
+	
+	/**
+	 * Creates a backend which stores data in one YAML file per chunk, so that saving only writes the chunks which changed
+	 * @param directory The directory to store the chunk files in
+	 * @return The backend
+	 */
+	public static BlockDataBackend chunkedYaml(Path directory) {
+		return new ChunkedYamlBackend(directory);
+	}
+	
+	/**
+	 * Creates a backend which stores data in a compact binary format, with one file per 32x32 chunk region. Keys and
+	 * string values are stored once per file, and int, long, double, boolean and string values are stored without
+	 * conversion to text. Other values are stored as YAML.
+	 * @param directory The directory to store the region files in
+	 * @return The backend
+	 */
+	public static BlockDataBackend binary(Path directory) {
+		return new BinaryBackend(directory);
+	}
+	
+	/**
+	 * Creates a backend which stores data in a SQLite database, with one row per block. Only the changed chunks are
+	 * written on save, in a single transaction, and each chunk can be read on its own, which suits lazy loading.
+	 * The SQLite driver must be available at runtime. The connections are released by
+	 * {@link redempt.redlib.blockdata.BlockDataManager#close()}, or by {@link BlockDataBackend#close()} if the backend
+	 * is used on its own.
+	 * @param file The path to the SQLite database file
+	 * @return The backend
+	 * @throws IOException If the database could not be opened
+	 */
+	public static BlockDataBackend sqlite(Path file) throws IOException {
+		return new SQLiteBackend(file);
+	}
+	
+	/**
+	 * Copies all data from one backend to another, for example to convert a YAML file to the binary format:
+	 * <pre>BlockDataBackend.convert(BlockDataBackend.yaml(file), BlockDataBackend.binary(directory));</pre>
+	 * Data already stored in the target backend for other chunks is left untouched. Neither backend is closed.
+	 * @param from The backend to read data from
+	 * @param to The backend to write data to
+	 * @throws IOException If the data could not be read or written
+	 */
+	public static void convert(BlockDataBackend from, BlockDataBackend to) throws IOException {
+		to.save(from.loadAll());
+	}
+	
+	/**
+	 * Loads all the data stored for a single chunk
+	 * @param chunk The chunk to load data for
+	 * @return A map of block positions to the data stored for them, empty if nothing is stored for the chunk
+	 * @throws IOException If the data could not be read
+	 */
+	public Map<BlockPosition, Map<String, Object>> load(ChunkPosition chunk) throws IOException;
+	
+	/**
+	 * Loads all the data stored by this backend
+	 * @return A map of chunk positions to the data stored in them
+	 * @throws IOException If the data could not be read
+	 */
+	public Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> loadAll() throws IOException;
+	
+	/**
+	 * Saves the data for the given chunks, replacing whatever was previously stored for them. Chunks which are mapped
+	 * to an empty map will be removed. Chunks which are not passed are left untouched. This may be called from a
+	 * thread other than the main thread while {@link BlockDataBackend#load(ChunkPosition)} is called on the main thread,
+	 * so implementations must not expose partially written data.
+	 * @param chunks A map of chunk positions to the data which should be stored in them
+	 * @throws IOException If the data could not be written
+	 */
+	public void save(Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> chunks) throws IOException;
+	
+	/**
+	 * Releases any resources held by this backend
+	 * @throws IOException If an error occurs while closing
+	 */
+	public default void close() throws IOException {}
+	
+}
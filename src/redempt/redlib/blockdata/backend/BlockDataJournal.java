@@ -0,0 +1,324 @@
+package redempt.redlib.blockdata.backend;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of changes to block data, used by a {@link redempt.redlib.blockdata.BlockDataManager} to
+ * make changes durable as they happen rather than only when it is saved. Each change records the full data of one
+ * block, so replaying the journal is idempotent. Changes are written by a separate thread, which writes and syncs
+ * everything queued since its last write at once. The journal is split into segments so that the segments which
+ * are covered by a completed save can be deleted.
+ * @author Redempt
+ */
+public class BlockDataJournal {
+	
+	private static final byte PUT = 0;
+	private static final byte DELETE = 1;
+	
+	private Path directory;
+	private BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+	private long segment;
+	private long current;
+	private FileChannel channel;
+	private Thread thread;
+	private boolean running = true;
+	
+	/**
+	 * Opens a journal in a directory, which will be created if it does not exist. Call
+	 * {@link BlockDataJournal#replay(BlockDataBackend)} before recording any changes.
+	 * @param directory The directory to store the journal segments in
+	 * @throws IOException If the directory could not be read
+	 */
+	public BlockDataJournal(Path directory) throws IOException {
+		this.directory = directory;
+		Files.createDirectories(directory);
+		List<Long> segments = getSegments();
+		segment = segments.size() == 0 ? 0 : segments.get(segments.size() - 1) + 1;
+		current = segment;
+		thread = new Thread(this::run, "RedLib BlockDataManager journal thread");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Records the data of a block. The data must not be modified afterwards.
+	 * @param world The name of the world the block is in
+	 * @param pos The position of the block
+	 * @param data The data of the block
+	 */
+	public void put(String world, BlockPosition pos, Map<String, Object> data) {
+		queue.add(new Record(PUT, world, pos.toLong(), data));
+	}
+	
+	/**
+	 * Records that a block no longer has any data
+	 * @param world The name of the world the block is in
+	 * @param pos The position of the block
+	 */
+	public void delete(String world, BlockPosition pos) {
+		queue.add(new Record(DELETE, world, pos.toLong(), null));
+	}
+	
+	/**
+	 * Starts a new segment. Changes recorded after this call go to the new segment.
+	 * @return The ID of the segment which was being written before this call, to be passed to
+	 * {@link BlockDataJournal#compact(long)} once everything recorded before this call has been saved
+	 */
+	public long rotate() {
+		long previous = segment++;
+		long next = segment;
+		queue.add((Task) () -> {
+			closeChannel();
+			open(next);
+		});
+		return previous;
+	}
+	
+	/**
+	 * Deletes all segments up to and including the given one. Call this once the data they record has been saved.
+	 * @param upTo The ID of the last segment to delete, as returned by {@link BlockDataJournal#rotate()}
+	 */
+	public void compact(long upTo) {
+		queue.add((Task) () -> {
+			for (long id : getSegments()) {
+				if (id <= upTo && id != current) {
+					Files.deleteIfExists(getFile(id));
+				}
+			}
+		});
+	}
+	
+	/**
+	 * @return A CompletableFuture which is completed once everything recorded before this call has been written and synced
+	 */
+	public CompletableFuture<Void> flush() {
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		queue.add((Task) () -> future.complete(null));
+		return future;
+	}
+	
+	/**
+	 * Applies every change recorded in this journal to a backend, then deletes the recorded segments. If a segment
+	 * ends with a partially written change, such as after a crash, the partial change is ignored.
+	 * @param backend The backend to apply the changes to
+	 * @throws IOException If the journal could not be read or the backend could not be read or written
+	 */
+	public void replay(BlockDataBackend backend) throws IOException {
+		List<Long> segments = getSegments();
+		segments.removeIf(id -> id >= segment);
+		if (segments.size() == 0) {
+			return;
+		}
+		Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> changes = new HashMap<>();
+		for (long id : segments) {
+			read(getFile(id), changes);
+		}
+		Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> chunks = new HashMap<>();
+		for (Map.Entry<ChunkPosition, Map<BlockPosition, Map<String, Object>>> entry : changes.entrySet()) {
+			Map<BlockPosition, Map<String, Object>> data = new HashMap<>(backend.load(entry.getKey()));
+			entry.getValue().forEach((pos, blockData) -> {
+				if (blockData == null) {
+					data.remove(pos);
+				} else {
+					data.put(pos, blockData);
+				}
+			});
+			chunks.put(entry.getKey(), data);
+		}
+		backend.save(chunks);
+		for (long id : segments) {
+			Files.deleteIfExists(getFile(id));
+		}
+	}
+	
+	/**
+	 * Writes everything recorded so far and stops the journal thread. Nothing can be recorded afterwards.
+	 */
+	public void close() {
+		queue.add((Task) () -> running = false);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void run() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		List<Object> batch = new ArrayList<>();
+		while (running) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				continue;
+			}
+			queue.drainTo(batch);
+			for (Object item : batch) {
+				try {
+					if (item instanceof Record) {
+						write(out, (Record) item);
+						continue;
+					}
+					sync(bytes);
+					((Task) item).run();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			batch.clear();
+			try {
+				sync(bytes);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		try {
+			closeChannel();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private void write(DataOutputStream out, Record record) throws IOException {
+		ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+		DataOutputStream payload = new DataOutputStream(payloadBytes);
+		payload.writeByte(record.op);
+		BinaryCodec.writeString(payload, record.world);
+		payload.writeLong(record.pos);
+		if (record.op == PUT) {
+			BinaryCodec.writeVarInt(payload, record.data.size());
+			for (Map.Entry<String, Object> entry : record.data.entrySet()) {
+				BinaryCodec.writeString(payload, entry.getKey());
+				BinaryCodec.writeValue(payload, entry.getValue(), null);
+			}
+		}
+		CRC32 crc = new CRC32();
+		crc.update(payloadBytes.toByteArray());
+		out.writeInt(payloadBytes.size());
+		out.writeInt((int) crc.getValue());
+		payloadBytes.writeTo(out);
+	}
+	
+	private void sync(ByteArrayOutputStream bytes) throws IOException {
+		if (bytes.size() == 0) {
+			return;
+		}
+		if (channel == null) {
+			open(current);
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		bytes.reset();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		channel.force(false);
+	}
+	
+	private void open(long id) throws IOException {
+		current = id;
+		channel = FileChannel.open(getFile(id), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+	
+	private void closeChannel() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+	
+	private static void read(Path file, Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> changes) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)));
+		while (true) {
+			byte[] payload;
+			try {
+				int length = in.readInt();
+				int crc = in.readInt();
+				if (length < 0 || length > in.available()) {
+					return;
+				}
+				payload = new byte[length];
+				in.readFully(payload);
+				CRC32 check = new CRC32();
+				check.update(payload);
+				if ((int) check.getValue() != crc) {
+					return;
+				}
+			} catch (EOFException e) {
+				return;
+			}
+			DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+			byte op = record.readByte();
+			String world = BinaryCodec.readString(record);
+			long packed = record.readLong();
+			BlockPosition pos = new BlockPosition(BlockPosition.unpackX(packed), BlockPosition.unpackY(packed), BlockPosition.unpackZ(packed));
+			ChunkPosition chunk = new ChunkPosition(world, pos.getX() >> 4, pos.getZ() >> 4);
+			Map<String, Object> data = null;
+			if (op == PUT) {
+				int size = BinaryCodec.readVarInt(record);
+				data = new HashMap<>();
+				for (int i = 0; i < size; i++) {
+					data.put(BinaryCodec.readString(record), BinaryCodec.readValue(record, null));
+				}
+			}
+			changes.computeIfAbsent(chunk, k -> new HashMap<>()).put(pos, data);
+		}
+	}
+	
+	private List<Long> getSegments() throws IOException {
+		try (Stream<Path> stream = Files.list(directory)) {
+			return stream.map(p -> p.getFileName().toString())
+					.filter(s -> s.endsWith(".journal"))
+					.map(s -> Long.parseLong(s.substring(0, s.length() - 8)))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+	
+	private Path getFile(long id) {
+		return directory.resolve(id + ".journal");
+	}
+	
+	private static class Record {
+		
+		private byte op;
+		private String world;
+		private long pos;
+		private Map<String, Object> data;
+		
+		public Record(byte op, String world, long pos, Map<String, Object> data) {
+			this.op = op;
+			this.world = world;
+			this.pos = pos;
+			this.data = data;
+		}
+		
+	}
+	
+	private interface Task {
+		
+		public void run() throws IOException;
+		
+	}
+	
+}
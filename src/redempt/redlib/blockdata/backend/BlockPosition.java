@@ -0,0 +1,145 @@
+package redempt.redlib.blockdata.backend;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+/**
+ * Represents the position of a block, independent of the world it is in
+ * @author Redempt
+ */
+public class BlockPosition {
+	
+	/**
+	 * Packs block coordinates into a single long. X and Z must be within 2^25 of 0, and Y within 2^11 of 0,
+	 * which covers every valid block position.
+	 * @param x The X coordinate
+	 * @param y The Y coordinate
+	 * @param z The Z coordinate
+	 * @return The packed coordinates
+	 */
+	public static long pack(int x, int y, int z) {
+		return (((long) x & 0x3FFFFFF) << 38) | (((long) z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+	}
+	
+	/**
+	 * Gets the X coordinate from coordinates packed with {@link BlockPosition#pack(int, int, int)}
+	 * @param packed The packed coordinates
+	 * @return The X coordinate
+	 */
+	public static int unpackX(long packed) {
+		return (int) (packed >> 38);
+	}
+	
+	/**
+	 * Gets the Y coordinate from coordinates packed with {@link BlockPosition#pack(int, int, int)}
+	 * @param packed The packed coordinates
+	 * @return The Y coordinate
+	 */
+	public static int unpackY(long packed) {
+		return (int) (packed << 52 >> 52);
+	}
+	
+	/**
+	 * Gets the Z coordinate from coordinates packed with {@link BlockPosition#pack(int, int, int)}
+	 * @param packed The packed coordinates
+	 * @return The Z coordinate
+	 */
+	public static int unpackZ(long packed) {
+		return (int) (packed << 26 >> 38);
+	}
+	
+	/**
+	 * Converts a String generated by {@link BlockPosition#toString()} back to a BlockPosition
+	 * @param input The String representation of a BlockPosition
+	 * @return The BlockPosition
+	 */
+	public static BlockPosition fromString(String input) {
+		String[] split = input.split(" ");
+		return new BlockPosition(Integer.parseInt(split[0]), Integer.parseInt(split[1]), Integer.parseInt(split[2]));
+	}
+	
+	private int x;
+	private int y;
+	private int z;
+	
+	/**
+	 * Constructs a BlockPosition from coordinates
+	 * @param x The X coordinate
+	 * @param y The Y coordinate
+	 * @param z The Z coordinate
+	 */
+	public BlockPosition(int x, int y, int z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+	}
+	
+	/**
+	 * Constructs a BlockPosition from the coordinates of a Block
+	 * @param block The Block
+	 */
+	public BlockPosition(Block block) {
+		this(block.getX(), block.getY(), block.getZ());
+	}
+	
+	/**
+	 * @return The X coordinate
+	 */
+	public int getX() {
+		return x;
+	}
+	
+	/**
+	 * @return The Y coordinate
+	 */
+	public int getY() {
+		return y;
+	}
+	
+	/**
+	 * @return The Z coordinate
+	 */
+	public int getZ() {
+		return z;
+	}
+	
+	/**
+	 * @return The coordinates of this BlockPosition packed into a long using {@link BlockPosition#pack(int, int, int)}
+	 */
+	public long toLong() {
+		return pack(x, y, z);
+	}
+	
+	/**
+	 * Gets the Block at this position in a World
+	 * @param world The World to get the Block in
+	 * @return The Block at this position
+	 */
+	public Block getBlock(World world) {
+		return world.getBlockAt(x, y, z);
+	}
+	
+	@Override
+	public int hashCode() {
+		return (x * 31 + y) * 31 + z;
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof BlockPosition)) {
+			return false;
+		}
+		BlockPosition other = (BlockPosition) o;
+		return other.x == x && other.y == y && other.z == z;
+	}
+	
+	/**
+	 * Converts this BlockPosition to a String which can be converted back with {@link BlockPosition#fromString(String)}
+	 * @return The String representation of this BlockPosition
+	 */
+	@Override
+	public String toString() {
+		return x + " " + y + " " + z;
+	}
+	
+}
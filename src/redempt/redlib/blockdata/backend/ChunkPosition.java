@@ -0,0 +1,127 @@
+package redempt.redlib.blockdata.backend;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+/**
+ * Represents the position of a chunk in a world, used to partition block data
+ * @author Redempt
+ */
+public class ChunkPosition {
+	
+	/**
+	 * Packs chunk coordinates into a single long
+	 * @param x The chunk X coordinate
+	 * @param z The chunk Z coordinate
+	 * @return The packed coordinates
+	 */
+	public static long pack(int x, int z) {
+		return ((long) x << 32) | (z & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Converts a String generated by {@link ChunkPosition#toString()} back to a ChunkPosition
+	 * @param input The String representation of a ChunkPosition
+	 * @return The ChunkPosition
+	 */
+	public static ChunkPosition fromString(String input) {
+		int last = input.lastIndexOf(' ');
+		int middle = input.lastIndexOf(' ', last - 1);
+		return new ChunkPosition(input.substring(0, middle),
+				Integer.parseInt(input.substring(middle + 1, last)),
+				Integer.parseInt(input.substring(last + 1)));
+	}
+	
+	private String world;
+	private int x;
+	private int z;
+	
+	/**
+	 * Constructs a ChunkPosition from a world name and chunk coordinates
+	 * @param world The name of the world the chunk is in
+	 * @param x The chunk X coordinate
+	 * @param z The chunk Z coordinate
+	 */
+	public ChunkPosition(String world, int x, int z) {
+		this.world = world;
+		this.x = x;
+		this.z = z;
+	}
+	
+	/**
+	 * Constructs a ChunkPosition for the chunk a Block is in, without loading the chunk
+	 * @param block The Block
+	 */
+	public ChunkPosition(Block block) {
+		this(block.getWorld().getName(), block.getX() >> 4, block.getZ() >> 4);
+	}
+	
+	/**
+	 * Constructs a ChunkPosition from a Chunk
+	 * @param chunk The Chunk
+	 */
+	public ChunkPosition(Chunk chunk) {
+		this(chunk.getWorld().getName(), chunk.getX(), chunk.getZ());
+	}
+	
+	/**
+	 * @return The name of the world this chunk is in
+	 */
+	public String getWorldName() {
+		return world;
+	}
+	
+	/**
+	 * @return The World this chunk is in, or null if it is not loaded
+	 */
+	public World getWorld() {
+		return Bukkit.getWorld(world);
+	}
+	
+	/**
+	 * @return The chunk X coordinate
+	 */
+	public int getX() {
+		return x;
+	}
+	
+	/**
+	 * @return The chunk Z coordinate
+	 */
+	public int getZ() {
+		return z;
+	}
+	
+	/**
+	 * @return The coordinates of this ChunkPosition packed into a long using {@link ChunkPosition#pack(int, int)}
+	 */
+	public long toLong() {
+		return pack(x, z);
+	}
+	
+	@Override
+	public int hashCode() {
+		return (world.hashCode() * 31 + x) * 31 + z;
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof ChunkPosition)) {
+			return false;
+		}
+		ChunkPosition other = (ChunkPosition) o;
+		return other.x == x && other.z == z && other.world.equals(world);
+	}
+	
+	/**
+	 * Converts this ChunkPosition to a String which can be converted back with {@link ChunkPosition#fromString(String)}
+	 * @return The String representation of this ChunkPosition
+	 */
+	@Override
+	public String toString() {
+		return world + " " + x + " " + z;
+	}
+	
+}
@@ -0,0 +1,98 @@
+package redempt.redlib.blockdata.backend;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A {@link BlockDataBackend} which stores the data for each chunk in its own YAML file, grouped into directories
+ * by world and region
+ * @author Redempt
+ */
+class ChunkedYamlBackend implements BlockDataBackend {
+	
+	private Path directory;
+	
+	protected ChunkedYamlBackend(Path directory) {
+		this.directory = directory;
+	}
+	
+	private Path getFile(ChunkPosition pos) {
+		return directory.resolve(pos.getWorldName())
+				.resolve((pos.getX() >> 5) + "." + (pos.getZ() >> 5))
+				.resolve(pos.getX() + "." + pos.getZ() + ".yml");
+	}
+	
+	@Override
+	public Map<BlockPosition, Map<String, Object>> load(ChunkPosition chunk) {
+		Path file = getFile(chunk);
+		if (!Files.exists(file)) {
+			return new HashMap<>();
+		}
+		return read(YamlConfiguration.loadConfiguration(file.toFile()));
+	}
+	
+	@Override
+	public Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> loadAll() throws IOException {
+		Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> data = new HashMap<>();
+		if (!Files.exists(directory)) {
+			return data;
+		}
+		List<Path> files;
+		try (Stream<Path> stream = Files.walk(directory)) {
+			files = stream.filter(p -> p.getFileName().toString().endsWith(".yml")).collect(Collectors.toList());
+		}
+		for (Path file : files) {
+			Path relative = directory.relativize(file);
+			String[] split = relative.getFileName().toString().split("\\.");
+			ChunkPosition pos = new ChunkPosition(relative.getName(0).toString(), Integer.parseInt(split[0]), Integer.parseInt(split[1]));
+			data.put(pos, read(YamlConfiguration.loadConfiguration(file.toFile())));
+		}
+		return data;
+	}
+	
+	@Override
+	public void save(Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> chunks) throws IOException {
+		for (Map.Entry<ChunkPosition, Map<BlockPosition, Map<String, Object>>> entry : chunks.entrySet()) {
+			Path file = getFile(entry.getKey());
+			if (entry.getValue().size() == 0) {
+				Files.deleteIfExists(file);
+				continue;
+			}
+			YamlConfiguration config = new YamlConfiguration();
+			entry.getValue().forEach((pos, data) -> {
+				String key = pos.toString();
+				data.forEach((k, v) -> {
+					config.set(key + "." + k, v);
+				});
+			});
+			AtomicWriter.write(file, config.saveToString().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+	
+	private static Map<BlockPosition, Map<String, Object>> read(ConfigurationSection config) {
+		Map<BlockPosition, Map<String, Object>> blocks = new HashMap<>();
+		config.getKeys(false).forEach(s -> {
+			ConfigurationSection section = config.getConfigurationSection(s);
+			if (section == null) {
+				return;
+			}
+			Map<String, Object> data = new HashMap<>();
+			section.getKeys(false).forEach(key -> {
+				data.put(key, section.get(key));
+			});
+			blocks.put(BlockPosition.fromString(s), data);
+		});
+		return blocks;
+	}
+	
+}
@@ -0,0 +1,156 @@
+package redempt.redlib.blockdata.backend;
+
+import redempt.redlib.misc.SQLHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link BlockDataBackend} which stores data in a SQLite database, with one row per block keyed by its world,
+ * chunk and packed position. Saves are written in a single transaction, and chunks are loaded with an indexed
+ * query so that lazy loading does not need to read anything else. Writes use a separate connection from reads,
+ * so loading chunks on the main thread never sees or waits for a save in progress.
+ * @author Redempt
+ */
+class SQLiteBackend implements BlockDataBackend {
+	
+	private SQLHelper writer;
+	private SQLHelper reader;
+	
+	protected SQLiteBackend(Path file) throws IOException {
+		try {
+			if (file.getParent() != null) {
+				Files.createDirectories(file.getParent());
+			}
+			writer = new SQLHelper(SQLHelper.openSQLite(file));
+			writer.execute("PRAGMA journal_mode=WAL;");
+			writer.execute("PRAGMA synchronous=NORMAL;");
+			writer.execute("CREATE TABLE IF NOT EXISTS block_data (world TEXT NOT NULL, chunk_x INT NOT NULL, chunk_z INT NOT NULL, "
+					+ "position BIGINT NOT NULL, data BLOB NOT NULL, PRIMARY KEY (world, chunk_x, chunk_z, position));");
+			reader = new SQLHelper(SQLHelper.openSQLite(file));
+		} catch (Exception e) {
+			// SQLHelper rethrows SQLExceptions without declaring them, so they are caught here and wrapped
+			IOException error = e instanceof IOException ? (IOException) e : new IOException(e);
+			try {
+				close();
+			} catch (Exception suppressed) {
+				error.addSuppressed(suppressed);
+			}
+			throw error;
+		}
+	}
+	
+	@Override
+	public Map<BlockPosition, Map<String, Object>> load(ChunkPosition chunk) throws IOException {
+		Map<BlockPosition, Map<String, Object>> data = new HashMap<>();
+		try (PreparedStatement statement = reader.prepareStatement("SELECT position, data FROM block_data WHERE world=? AND chunk_x=? AND chunk_z=?;",
+				chunk.getWorldName(), chunk.getX(), chunk.getZ());
+				ResultSet results = statement.executeQuery()) {
+			while (results.next()) {
+				long pos = results.getLong(1);
+				data.put(new BlockPosition(BlockPosition.unpackX(pos), BlockPosition.unpackY(pos), BlockPosition.unpackZ(pos)), decode(results.getBytes(2)));
+			}
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+		return data;
+	}
+	
+	@Override
+	public Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> loadAll() throws IOException {
+		Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> data = new HashMap<>();
+		try (PreparedStatement statement = reader.prepareStatement("SELECT world, chunk_x, chunk_z, position, data FROM block_data;");
+				ResultSet results = statement.executeQuery()) {
+			while (results.next()) {
+				ChunkPosition chunk = new ChunkPosition(results.getString(1), results.getInt(2), results.getInt(3));
+				long pos = results.getLong(4);
+				data.computeIfAbsent(chunk, k -> new HashMap<>())
+						.put(new BlockPosition(BlockPosition.unpackX(pos), BlockPosition.unpackY(pos), BlockPosition.unpackZ(pos)), decode(results.getBytes(5)));
+			}
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+		return data;
+	}
+	
+	@Override
+	public void save(Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> chunks) throws IOException {
+		try (PreparedStatement delete = writer.prepareStatement("DELETE FROM block_data WHERE world=? AND chunk_x=? AND chunk_z=?;");
+				PreparedStatement insert = writer.prepareStatement("INSERT OR REPLACE INTO block_data (world, chunk_x, chunk_z, position, data) VALUES (?, ?, ?, ?, ?);")) {
+			writer.setAutoCommit(false);
+			try {
+				for (Map.Entry<ChunkPosition, Map<BlockPosition, Map<String, Object>>> entry : chunks.entrySet()) {
+					ChunkPosition chunk = entry.getKey();
+					delete.setString(1, chunk.getWorldName());
+					delete.setInt(2, chunk.getX());
+					delete.setInt(3, chunk.getZ());
+					delete.addBatch();
+					for (Map.Entry<BlockPosition, Map<String, Object>> block : entry.getValue().entrySet()) {
+						insert.setString(1, chunk.getWorldName());
+						insert.setInt(2, chunk.getX());
+						insert.setInt(3, chunk.getZ());
+						insert.setLong(4, block.getKey().toLong());
+						insert.setBytes(5, encode(block.getValue()));
+						insert.addBatch();
+					}
+				}
+				delete.executeBatch();
+				insert.executeBatch();
+				writer.commit();
+			} catch (Exception e) {
+				// Restoring auto-commit would commit the open transaction, including chunks which were only partly written
+				writer.rollback();
+				throw e;
+			} finally {
+				writer.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+	
+	@Override
+	public void close() {
+		try {
+			if (writer != null) {
+				writer.close();
+			}
+		} finally {
+			if (reader != null) {
+				reader.close();
+			}
+		}
+	}
+	
+	private static byte[] encode(Map<String, Object> data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		BinaryCodec.writeVarInt(out, data.size());
+		for (Map.Entry<String, Object> entry : data.entrySet()) {
+			BinaryCodec.writeString(out, entry.getKey());
+			BinaryCodec.writeValue(out, entry.getValue(), null);
+		}
+		return bytes.toByteArray();
+	}
+	
+	private static Map<String, Object> decode(byte[] bytes) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		int size = BinaryCodec.readVarInt(in);
+		Map<String, Object> data = new HashMap<>();
+		for (int i = 0; i < size; i++) {
+			data.put(BinaryCodec.readString(in), BinaryCodec.readValue(in, null));
+		}
+		return data;
+	}
+	
+}
@@ -0,0 +1,109 @@
+package redempt.redlib.blockdata.backend;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link BlockDataBackend} which stores all data in a single YAML file, keyed by the world and coordinates of each block.
+ * Only the entries for changed chunks are replaced in memory, but the whole file is written on every save.
+ * @author Redempt
+ */
+class YamlBackend implements BlockDataBackend {
+	
+	private Path file;
+	private YamlConfiguration config;
+	private Map<ChunkPosition, Set<String>> keys;
+	
+	protected YamlBackend(Path file) {
+		this.file = file;
+	}
+	
+	private void init() throws IOException {
+		if (config != null) {
+			return;
+		}
+		if (!Files.exists(file.getParent())) {
+			Files.createDirectories(file.getParent());
+		}
+		config = YamlConfiguration.loadConfiguration(file.toFile());
+		keys = new HashMap<>();
+		for (String key : config.getKeys(false)) {
+			int last = key.lastIndexOf(' ');
+			int middle = key.lastIndexOf(' ', last - 1);
+			int first = key.lastIndexOf(' ', middle - 1);
+			int x = (int) Math.floor(Double.parseDouble(key.substring(first + 1, middle)));
+			int z = (int) Math.floor(Double.parseDouble(key.substring(last + 1)));
+			ChunkPosition pos = new ChunkPosition(key.substring(0, first), x >> 4, z >> 4);
+			keys.computeIfAbsent(pos, k -> new HashSet<>()).add(key);
+		}
+	}
+	
+	@Override
+	public synchronized Map<BlockPosition, Map<String, Object>> load(ChunkPosition chunk) throws IOException {
+		init();
+		Map<BlockPosition, Map<String, Object>> blocks = new HashMap<>();
+		Set<String> set = keys.get(chunk);
+		if (set == null) {
+			return blocks;
+		}
+		for (String key : set) {
+			ConfigurationSection section = config.getConfigurationSection(key);
+			if (section == null) {
+				continue;
+			}
+			Map<String, Object> data = new HashMap<>();
+			section.getKeys(false).forEach(k -> {
+				data.put(k, section.get(k));
+			});
+			String[] split = key.substring(chunk.getWorldName().length() + 1).split(" ");
+			blocks.put(new BlockPosition((int) Math.floor(Double.parseDouble(split[0])),
+					(int) Math.floor(Double.parseDouble(split[1])),
+					(int) Math.floor(Double.parseDouble(split[2]))), data);
+		}
+		return blocks;
+	}
+	
+	@Override
+	public synchronized Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> loadAll() throws IOException {
+		init();
+		Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> data = new HashMap<>();
+		for (ChunkPosition pos : keys.keySet()) {
+			data.put(pos, load(pos));
+		}
+		return data;
+	}
+	
+	@Override
+	public synchronized void save(Map<ChunkPosition, Map<BlockPosition, Map<String, Object>>> chunks) throws IOException {
+		init();
+		chunks.forEach((chunk, blocks) -> {
+			Set<String> old = keys.remove(chunk);
+			if (old != null) {
+				old.forEach(k -> config.set(k, null));
+			}
+			if (blocks.size() == 0) {
+				return;
+			}
+			Set<String> set = new HashSet<>();
+			blocks.forEach((pos, data) -> {
+				String key = chunk.getWorldName() + " " + pos.toString();
+				data.forEach((k, v) -> {
+					config.set(key + "." + k, v);
+				});
+				set.add(key);
+			});
+			keys.put(chunk, set);
+		});
+		AtomicWriter.write(file, config.saveToString().getBytes(StandardCharsets.UTF_8));
+	}
+	
+}
@@ -0,0 +1,75 @@
+package redempt.redlib.blockdata.events;
+
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+import redempt.redlib.blockdata.DataBlock;
+import redempt.redlib.blockdata.events.DataBlockDestroyEvent.DestroyCause;
+
+import java.util.List;
+
+/**
+ * Called once when several DataBlocks are destroyed together by something other than a player, such as an explosion.
+ * Removing a DataBlock from {@link DataBlockMultiDestroyEvent#getDataBlocks()} prevents it from being destroyed.
+ * @author Redempt
+ */
+public class DataBlockMultiDestroyEvent extends Event implements Cancellable {
+	
+	private static HandlerList handlers = new HandlerList();
+	
+	public static HandlerList getHandlerList() {
+		return handlers;
+	}
+	
+	private List<DataBlock> blocks;
+	private DestroyCause cause;
+	private boolean cancelled = false;
+	
+	/**
+	 * Construct a DataBlockMultiDestroyEvent
+	 * @param blocks The DataBlocks that are being destroyed
+	 * @param cause Why they are being destroyed
+	 */
+	public DataBlockMultiDestroyEvent(List<DataBlock> blocks, DestroyCause cause) {
+		this.blocks = blocks;
+		this.cause = cause;
+	}
+	
+	/**
+	 * @return A mutable list of the DataBlocks being destroyed. DataBlocks removed from it will not be destroyed.
+	 */
+	public List<DataBlock> getDataBlocks() {
+		return blocks;
+	}
+	
+	/**
+	 * @return The DestroyCause representing why the DataBlocks are being destroyed
+	 */
+	public DestroyCause getCause() {
+		return cause;
+	}
+	
+	@Override
+	public HandlerList getHandlers() {
+		return handlers;
+	}
+	
+	/**
+	 * @return Whether this event is cancelled
+	 */
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	/**
+	 * Sets the cancellation state of this event. If cancelled, none of the DataBlocks will be destroyed.
+	 *
+	 * @param cancel true if you wish to cancel this event
+	 */
+	@Override
+	public void setCancelled(boolean cancel) {
+		this.cancelled = cancel;
+	}
+	
+}
@@ -0,0 +1,78 @@
+package redempt.redlib.blockdata.events;
+
+import org.bukkit.block.BlockFace;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+import redempt.redlib.blockdata.DataBlock;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Called once when several DataBlocks are moved together, such as by a piston
+ * @author Redempt
+ */
+public class DataBlockMultiMoveEvent extends Event implements Cancellable {
+	
+	private static HandlerList handlers = new HandlerList();
+	
+	public static HandlerList getHandlerList() {
+		return handlers;
+	}
+	
+	private List<DataBlock> blocks;
+	private BlockFace direction;
+	private boolean cancelled = false;
+	
+	/**
+	 * Construct a DataBlockMultiMoveEvent
+	 * @param blocks The DataBlocks that are moving
+	 * @param direction The direction they are moving in
+	 */
+	public DataBlockMultiMoveEvent(List<DataBlock> blocks, BlockFace direction) {
+		this.blocks = Collections.unmodifiableList(blocks);
+		this.direction = direction;
+	}
+	
+	/**
+	 * @return The DataBlocks that are moving
+	 */
+	public List<DataBlock> getDataBlocks() {
+		return blocks;
+	}
+	
+	/**
+	 * @return The direction the DataBlocks are moving in. Each DataBlock moves one block in this direction.
+	 */
+	public BlockFace getDirection() {
+		return direction;
+	}
+	
+	/**
+	 * Gets the cancellation state of this event. A cancelled event will not
+	 * be executed in the server, but will still pass to other plugins
+	 *
+	 * @return true if this event is cancelled
+	 */
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	/**
+	 * Sets the cancellation state of this event. Cancelling it cancels the movement of all the blocks.
+	 *
+	 * @param cancel true if you wish to cancel this event
+	 */
+	@Override
+	public void setCancelled(boolean cancel) {
+		this.cancelled = cancel;
+	}
+	
+	@Override
+	public HandlerList getHandlers() {
+		return handlers;
+	}
+	
+}
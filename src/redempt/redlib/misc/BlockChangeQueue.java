@@ -0,0 +1,494 @@
+package redempt.redlib.misc;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.material.MaterialData;
+import org.bukkit.plugin.Plugin;
+import redempt.redlib.RedLib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A queue of block changes which is worked through on the main thread, spending at most a set number of milliseconds
+ * each tick. Jobs with a higher priority are worked on first, and jobs with the same priority are worked on in the
+ * order they were submitted. The queue measures how many changes it makes per millisecond, so callers can estimate
+ * how long their jobs will take.
+ * @author Redempt
+ */
+public class BlockChangeQueue {
+	
+	private static final int BATCH_SIZE = 64;
+	private static BlockChangeQueue defaultQueue;
+	
+	/**
+	 * Gets the shared queue owned by RedLib, which spends at most 10 milliseconds per tick by default
+	 * @return The shared queue
+	 */
+	public static BlockChangeQueue getDefault() {
+		if (defaultQueue == null) {
+			defaultQueue = new BlockChangeQueue(RedLib.getInstance(), 10);
+		}
+		return defaultQueue;
+	}
+	
+	private Plugin plugin;
+	private double maxMillisPerTick;
+	private PriorityQueue<Job> jobs = new PriorityQueue<>();
+	private long submitted = 0;
+	private int task = -1;
+	private long totalChanges = 0;
+	private double changesPerMilli = 0;
+	
+	/**
+	 * Creates a new BlockChangeQueue
+	 * @param plugin The plugin which will own the task working through the queue
+	 * @param maxMillisPerTick The maximum time to spend making changes each tick, in milliseconds
+	 */
+	public BlockChangeQueue(Plugin plugin, double maxMillisPerTick) {
+		this.plugin = plugin;
+		setMaxMillisPerTick(maxMillisPerTick);
+	}
+	
+	/**
+	 * Submits a job to this queue with priority 0. Must be called on the main thread.
+	 * @param job The job to submit
+	 * @param <T> The type of the job
+	 * @return The job
+	 */
+	public <T extends Job> T submit(T job) {
+		return submit(job, 0);
+	}
+	
+	/**
+	 * Submits a job to this queue. Must be called on the main thread.
+	 * @param job The job to submit
+	 * @param priority The priority of the job. Jobs with a higher priority are worked on first.
+	 * @param <T> The type of the job
+	 * @return The job
+	 * @throws IllegalStateException if the job has already been submitted
+	 */
+	public <T extends Job> T submit(T job, int priority) {
+		add(job, priority);
+		return job;
+	}
+	
+	private void add(Job job, int priority) {
+		if (job.queue != null) {
+			throw new IllegalStateException("Job has already been submitted");
+		}
+		job.queue = this;
+		job.priority = priority;
+		job.sequence = submitted++;
+		jobs.add(job);
+		if (task == -1) {
+			task = Bukkit.getScheduler().scheduleSyncRepeatingTask(plugin, this::tick, 1, 1);
+		}
+	}
+	
+	/**
+	 * Cancels every job in this queue
+	 */
+	public void cancelAll() {
+		new ArrayList<>(jobs).forEach(Job::cancel);
+	}
+	
+	/**
+	 * @return The maximum time spent making changes each tick, in milliseconds
+	 */
+	public double getMaxMillisPerTick() {
+		return maxMillisPerTick;
+	}
+	
+	/**
+	 * Sets the maximum time spent making changes each tick
+	 * @param maxMillisPerTick The maximum time in milliseconds
+	 */
+	public void setMaxMillisPerTick(double maxMillisPerTick) {
+		if (maxMillisPerTick <= 0) {
+			throw new IllegalArgumentException("Time per tick must be positive");
+		}
+		this.maxMillisPerTick = maxMillisPerTick;
+	}
+	
+	/**
+	 * @return The number of jobs waiting in this queue
+	 */
+	public int getQueuedJobs() {
+		return jobs.size();
+	}
+	
+	/**
+	 * @return The number of changes this queue has made in total
+	 */
+	public long getTotalChanges() {
+		return totalChanges;
+	}
+	
+	/**
+	 * @return A moving average of the number of changes this queue makes per millisecond, or 0 if it has not made any yet
+	 */
+	public double getChangesPerMilli() {
+		return changesPerMilli;
+	}
+	
+	/**
+	 * Estimates how many ticks this queue will take to make a number of changes, based on its measured throughput
+	 * @param changes The number of changes
+	 * @return The estimated number of ticks, or -1 if the queue has not made enough changes to estimate
+	 */
+	public int estimateTicks(long changes) {
+		if (changesPerMilli == 0) {
+			return -1;
+		}
+		return (int) Math.ceil(changes / (changesPerMilli * maxMillisPerTick));
+	}
+	
+	private void tick() {
+		long start = System.nanoTime();
+		long deadline = start + (long) (maxMillisPerTick * 1000000);
+		int changes = 0;
+		Job job;
+		while ((job = jobs.peek()) != null) {
+			if (job.future.isDone()) {
+				jobs.poll();
+				continue;
+			}
+			boolean more = true;
+			try {
+				for (int i = 0; i < BATCH_SIZE && (more = job.step()); i++) {
+					changes++;
+				}
+			} catch (Exception e) {
+				jobs.poll();
+				job.future.completeExceptionally(e);
+				e.printStackTrace();
+				continue;
+			}
+			if (!more) {
+				jobs.poll();
+				job.finish();
+			}
+			if (System.nanoTime() >= deadline) {
+				break;
+			}
+		}
+		if (changes > 0) {
+			double rate = changes / ((System.nanoTime() - start) / 1000000d);
+			changesPerMilli = changesPerMilli == 0 ? rate : changesPerMilli * 0.9 + rate * 0.1;
+			totalChanges += changes;
+		}
+		if (jobs.isEmpty()) {
+			Bukkit.getScheduler().cancelTask(task);
+			task = -1;
+		}
+	}
+	
+	/**
+	 * A unit of work for a {@link BlockChangeQueue}, which makes one block change each time it is stepped
+	 * @author Redempt
+	 */
+	public static abstract class Job implements Comparable<Job> {
+		
+		private BlockChangeQueue queue;
+		private int priority;
+		private long sequence;
+		private CompletableFuture<Void> future = new CompletableFuture<>();
+		
+		/**
+		 * Makes the next block change
+		 * @return Whether there was a change to make, or false once this job is done
+		 */
+		protected abstract boolean step();
+		
+		/**
+		 * Called on the main thread once this job is done, before its future is completed
+		 */
+		protected void onComplete() {}
+		
+		/**
+		 * Makes every remaining change in this job immediately, rather than over multiple ticks
+		 */
+		public void runNow() {
+			if (future.isDone()) {
+				return;
+			}
+			while (step());
+			if (queue != null) {
+				queue.jobs.remove(this);
+			}
+			finish();
+		}
+		
+		/**
+		 * Cancels this job, leaving any changes it has already made. Must be called on the main thread.
+		 * @return Whether the job was cancelled, or false if it was already done
+		 */
+		public boolean cancel() {
+			if (queue != null) {
+				queue.jobs.remove(this);
+			}
+			return future.cancel(false);
+		}
+		
+		/**
+		 * @return Whether this job was cancelled
+		 */
+		public boolean isCancelled() {
+			return future.isCancelled();
+		}
+		
+		/**
+		 * @return Whether this job is done, was cancelled, or failed
+		 */
+		public boolean isDone() {
+			return future.isDone();
+		}
+		
+		/**
+		 * @return A CompletableFuture which is completed when this job is done. Cancelling it cancels the job.
+		 */
+		public CompletableFuture<Void> getFuture() {
+			return future;
+		}
+		
+		/**
+		 * @return The priority this job was submitted with
+		 */
+		public int getPriority() {
+			return priority;
+		}
+		
+		private void finish() {
+			try {
+				onComplete();
+			} catch (Exception e) {
+				future.completeExceptionally(e);
+				e.printStackTrace();
+				return;
+			}
+			future.complete(null);
+		}
+		
+		@Override
+		public int compareTo(Job o) {
+			if (priority != o.priority) {
+				return Integer.compare(o.priority, priority);
+			}
+			return Long.compare(sequence, o.sequence);
+		}
+		
+	}
+	
+	/**
+	 * A job which sets blocks in a single world to given BlockData, or MaterialData on versions before 1.13. Changes
+	 * are grouped by chunk, so each chunk is only fetched once, and setting the same block more than once only keeps the
+	 * last change. Blocks which already have the given data are skipped.
+	 * @author Redempt
+	 */
+	public static class ChangeSet extends Job {
+		
+		private World world;
+		private LongHashMap<ChunkChanges> chunks = new LongHashMap<>();
+		private List<ChunkChanges> order = new ArrayList<>();
+		private int size = 0;
+		private boolean started = false;
+		private int chunkIndex = 0;
+		private int index = 0;
+		private Chunk chunk;
+		
+		/**
+		 * Creates an empty ChangeSet
+		 * @param world The world the changes will be made in
+		 */
+		public ChangeSet(World world) {
+			this.world = world;
+		}
+		
+		/**
+		 * Adds a change to this ChangeSet (1.13+ only)
+		 * @param x The X coordinate of the block
+		 * @param y The Y coordinate of the block
+		 * @param z The Z coordinate of the block
+		 * @param data The BlockData to set
+		 * @throws IllegalStateException if the queue has already started making these changes
+		 */
+		public void set(int x, int y, int z, BlockData data) {
+			add(x, y, z, data);
+		}
+		
+		/**
+		 * Adds a change to this ChangeSet. Prefer {@link ChangeSet#set(int, int, int, BlockData)} on 1.13+.
+		 * @param x The X coordinate of the block
+		 * @param y The Y coordinate of the block
+		 * @param z The Z coordinate of the block
+		 * @param data The MaterialData to set
+		 * @throws IllegalStateException if the queue has already started making these changes
+		 */
+		public void set(int x, int y, int z, MaterialData data) {
+			add(x, y, z, data);
+		}
+		
+		/**
+		 * Adds a change to this ChangeSet (1.13+ only)
+		 * @param block The block to change
+		 * @param data The BlockData to set
+		 * @throws IllegalArgumentException if the block is not in this ChangeSet's world
+		 */
+		public void set(Block block, BlockData data) {
+			checkWorld(block);
+			set(block.getX(), block.getY(), block.getZ(), data);
+		}
+		
+		/**
+		 * Adds a change to this ChangeSet. Prefer {@link ChangeSet#set(Block, BlockData)} on 1.13+.
+		 * @param block The block to change
+		 * @param data The MaterialData to set
+		 * @throws IllegalArgumentException if the block is not in this ChangeSet's world
+		 */
+		public void set(Block block, MaterialData data) {
+			checkWorld(block);
+			set(block.getX(), block.getY(), block.getZ(), data);
+		}
+		
+		private void checkWorld(Block block) {
+			if (!block.getWorld().equals(world)) {
+				throw new IllegalArgumentException("Block is not in the same world as this ChangeSet");
+			}
+		}
+		
+		private void add(int x, int y, int z, Object data) {
+			if (started) {
+				throw new IllegalStateException("Changes have already started being made");
+			}
+			long key = ((long) (x >> 4) << 32) | ((z >> 4) & 0xFFFFFFFFL);
+			ChunkChanges changes = chunks.get(key);
+			if (changes == null) {
+				changes = new ChunkChanges(x >> 4, z >> 4);
+				chunks.put(key, changes);
+				order.add(changes);
+			}
+			changes.add((y << 8) | ((z & 15) << 4) | (x & 15), data);
+			size++;
+		}
+		
+		/**
+		 * @return The number of changes which have been added to this ChangeSet
+		 */
+		public int size() {
+			return size;
+		}
+		
+		/**
+		 * @return The world the changes will be made in
+		 */
+		public World getWorld() {
+			return world;
+		}
+		
+		@Override
+		protected boolean step() {
+			if (!started) {
+				started = true;
+				chunks = null;
+				order.forEach(ChunkChanges::merge);
+			}
+			while (chunkIndex < order.size()) {
+				ChunkChanges changes = order.get(chunkIndex);
+				if (index < changes.size) {
+					if (chunk == null) {
+						chunk = world.getChunkAt(changes.x, changes.z);
+					}
+					int pos = changes.positions[index];
+					Object data = changes.data[index];
+					index++;
+					Block block = chunk.getBlock(pos & 15, pos >> 8, (pos >> 4) & 15);
+					if (data instanceof MaterialData) {
+						apply(block, (MaterialData) data);
+					} else if (!block.getBlockData().equals(data)) {
+						block.setBlockData((BlockData) data, false);
+					}
+					return true;
+				}
+				order.set(chunkIndex, null);
+				chunkIndex++;
+				index = 0;
+				chunk = null;
+			}
+			return false;
+		}
+		
+		@SuppressWarnings("deprecation")
+		private static void apply(Block block, MaterialData data) {
+			if (block.getType() == data.getItemType() && block.getData() == data.getData()) {
+				return;
+			}
+			BlockState state = block.getState();
+			// Setting the MaterialData alone does not change the type of the block on versions before 1.13
+			state.setType(data.getItemType());
+			state.setData(data);
+			state.update(true, false);
+		}
+		
+	}
+	
+	private static class ChunkChanges {
+		
+		private int x;
+		private int z;
+		private int[] positions = new int[16];
+		// BlockData on 1.13+, or MaterialData on earlier versions
+		private Object[] data = new Object[16];
+		private int size = 0;
+		
+		public ChunkChanges(int x, int z) {
+			this.x = x;
+			this.z = z;
+		}
+		
+		public void add(int pos, Object blockData) {
+			if (size == positions.length) {
+				positions = Arrays.copyOf(positions, size * 2);
+				data = Arrays.copyOf(data, size * 2);
+			}
+			positions[size] = pos;
+			data[size] = blockData;
+			size++;
+		}
+		
+		/**
+		 * Sorts the changes by position and drops all but the last change to each position
+		 */
+		public void merge() {
+			long[] keys = new long[size];
+			for (int i = 0; i < size; i++) {
+				keys[i] = ((long) positions[i] << 32) | i;
+			}
+			Arrays.sort(keys);
+			int[] mergedPositions = new int[size];
+			Object[] mergedData = new Object[size];
+			int count = 0;
+			for (int i = 0; i < size; i++) {
+				int pos = (int) (keys[i] >> 32);
+				if (i + 1 < size && (int) (keys[i + 1] >> 32) == pos) {
+					continue;
+				}
+				mergedPositions[count] = pos;
+				mergedData[count] = data[(int) keys[i]];
+				count++;
+			}
+			positions = mergedPositions;
+			data = mergedData;
+			size = count;
+		}
+		
+	}
+	
+}
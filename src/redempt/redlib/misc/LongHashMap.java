@@ -0,0 +1,239 @@
+package redempt.redlib.misc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * A hash map with primitive long keys, which does not box keys or allocate entry objects. Null values are not permitted.
+ * Use it for spatial lookups where positions can be packed into a single long.
+ * @param <V> The type of the values stored in this map
+ * @author Redempt
+ */
+public class LongHashMap<V> {
+	
+	private static int hash(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32));
+	}
+	
+	private long[] keys;
+	private Object[] values;
+	private int mask;
+	private int size = 0;
+	
+	/**
+	 * Constructs an empty LongHashMap
+	 */
+	public LongHashMap() {
+		this(16);
+	}
+	
+	/**
+	 * Constructs an empty LongHashMap with room for the given number of entries before it needs to grow
+	 * @param capacity The initial capacity
+	 */
+	public LongHashMap(int capacity) {
+		int size = 16;
+		while (size * 3 / 4 < capacity) {
+			size <<= 1;
+		}
+		keys = new long[size];
+		values = new Object[size];
+		mask = size - 1;
+	}
+	
+	/**
+	 * Gets the value mapped to a key
+	 * @param key The key
+	 * @return The value mapped to the key, or null if there is none
+	 */
+	public V get(long key) {
+		int i = hash(key) & mask;
+		Object value;
+		while ((value = values[i]) != null) {
+			if (keys[i] == key) {
+				return (V) value;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+	
+	/**
+	 * Checks whether a value is mapped to a key
+	 * @param key The key
+	 * @return Whether a value is mapped to the key
+	 */
+	public boolean containsKey(long key) {
+		return get(key) != null;
+	}
+	
+	/**
+	 * Maps a key to a value
+	 * @param key The key
+	 * @param value The value, which may not be null
+	 * @return The value previously mapped to the key, or null if there was none
+	 */
+	public V put(long key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Value cannot be null");
+		}
+		int i = hash(key) & mask;
+		Object existing;
+		while ((existing = values[i]) != null) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return (V) existing;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+		if (size > values.length * 3 / 4) {
+			resize(values.length << 1);
+		}
+		return null;
+	}
+	
+	/**
+	 * Gets the value mapped to a key, computing and mapping it if there is none
+	 * @param key The key
+	 * @param func The function to compute the value if it is absent
+	 * @return The existing or computed value
+	 */
+	public V computeIfAbsent(long key, LongFunction<V> func) {
+		V value = get(key);
+		if (value == null) {
+			value = func.apply(key);
+			put(key, value);
+		}
+		return value;
+	}
+	
+	/**
+	 * Removes the mapping for a key
+	 * @param key The key
+	 * @return The value that was mapped to the key, or null if there was none
+	 */
+	public V remove(long key) {
+		int i = hash(key) & mask;
+		Object value;
+		while ((value = values[i]) != null) {
+			if (keys[i] == key) {
+				shift(i);
+				size--;
+				return (V) value;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+	
+	private void shift(int gap) {
+		values[gap] = null;
+		int i = gap;
+		while (true) {
+			i = (i + 1) & mask;
+			if (values[i] == null) {
+				return;
+			}
+			int home = hash(keys[i]) & mask;
+			boolean movable = gap <= i ? (home <= gap || home > i) : (home <= gap && home > i);
+			if (movable) {
+				keys[gap] = keys[i];
+				values[gap] = values[i];
+				values[i] = null;
+				gap = i;
+			}
+		}
+	}
+	
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] == null) {
+				continue;
+			}
+			int j = hash(oldKeys[i]) & mask;
+			while (values[j] != null) {
+				j = (j + 1) & mask;
+			}
+			keys[j] = oldKeys[i];
+			values[j] = oldValues[i];
+		}
+	}
+	
+	/**
+	 * @return The number of entries in this map
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return Whether this map is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Removes all entries from this map
+	 */
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+	
+	/**
+	 * Runs a lambda on every entry in this map. The map must not be modified while iterating.
+	 * @param lambda The lambda to be run on each key and value
+	 */
+	public void forEach(EntryConsumer<V> lambda) {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				lambda.accept(keys[i], (V) values[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Runs a lambda on every value in this map. The map must not be modified while iterating.
+	 * @param lambda The lambda to be run on each value
+	 */
+	public void forEachValue(Consumer<V> lambda) {
+		for (Object value : values) {
+			if (value != null) {
+				lambda.accept((V) value);
+			}
+		}
+	}
+	
+	/**
+	 * @return A list of all the values in this map
+	 */
+	public List<V> values() {
+		List<V> list = new ArrayList<>(size);
+		forEachValue(list::add);
+		return list;
+	}
+	
+	/**
+	 * A lambda which accepts an entry of a LongHashMap without boxing its key
+	 * @param <V> The type of the value
+	 */
+	public static interface EntryConsumer<V> {
+		
+		public void accept(long key, V value);
+		
+	}
+	
+}
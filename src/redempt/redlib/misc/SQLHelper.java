@@ -199,6 +199,41 @@ public class SQLHelper implements Closeable {
 		}
 	}
 	
+	/**
+	 * Sets the auto-commit mode of the wrapped Connection. Disable it to group several statements into one transaction,
+	 * which is much faster than committing each statement separately.
+	 * @param autoCommit Whether each statement should be committed as soon as it is executed
+	 */
+	public void setAutoCommit(boolean autoCommit) {
+		try {
+			connection.setAutoCommit(autoCommit);
+		} catch (SQLException e) {
+			sneakyThrow(e);
+		}
+	}
+	
+	/**
+	 * Commits the current transaction. Only needed if auto-commit has been disabled.
+	 */
+	public void commit() {
+		try {
+			connection.commit();
+		} catch (SQLException e) {
+			sneakyThrow(e);
+		}
+	}
+	
+	/**
+	 * Discards all changes made in the current transaction. Only needed if auto-commit has been disabled.
+	 */
+	public void rollback() {
+		try {
+			connection.rollback();
+		} catch (SQLException e) {
+			sneakyThrow(e);
+		}
+	}
+	
 	/**
 	 * @return The Connection this SQLHelper wraps
 	 */
@@ -27,6 +27,7 @@ import org.bukkit.entity.Player;
 import org.bukkit.material.MaterialData;
 
 import redempt.redlib.RedLib;
+import redempt.redlib.misc.BlockChangeQueue;
 import redempt.redlib.region.Region;
 
 /**
@@ -647,6 +648,73 @@ public class MultiBlockStructure {
 		return buildAsync(loc, 0, 0, 0, 0, false, blocksPerTick, callback);
 	}
 	
+	/**
+	 * Build this multi-block structure over multiple ticks using a {@link BlockChangeQueue}, which limits the time
+	 * spent building each tick rather than the number of blocks
+	 * @param loc The location to build the structure at
+	 * @param relX The relative X in the structure to build centered at
+	 * @param relY The relative Y in the structure to build centered at
+	 * @param relZ The relative Z in the structure to build centered at
+	 * @param rotation The number of 90-degree clockwise rotations to apply
+	 * @param mirror Whether to mirror the structure on the X axis
+	 * @param queue The queue to submit the changes to
+	 * @param priority The priority of the changes in the queue
+	 * @param callback A callback to accept the Structure instance that was created when construction is complete
+	 * @return The job building the structure, which can be cancelled
+	 */
+	public BlockChangeQueue.Job buildAsync(Location loc, int relX, int relY, int relZ, int rotation, boolean mirror, BlockChangeQueue queue, int priority, Consumer<Structure> callback) {
+		Location location = loc.getBlock().getLocation();
+		Rotator rotator = new Rotator(rotation, mirror);
+		rotator.setLocation(relX, relZ);
+		int offsetX = rotator.getRotatedX();
+		int offsetZ = rotator.getRotatedZ();
+		return queue.submit(new BlockChangeQueue.Job() {
+			
+			private int x = 0;
+			private int y = 0;
+			private int z = 0;
+			
+			@Override
+			protected boolean step() {
+				if (x >= dimX) {
+					return false;
+				}
+				rotator.setLocation(x, z);
+				Location l = location.clone().add(rotator.getRotatedX() - offsetX, y - relY, rotator.getRotatedZ() - offsetZ);
+				BlockState state = getStateToSet(l, rotator.rotate(data[x][y][z]));
+				if (state != null) {
+					state.update(true, false);
+				}
+				if (++z >= dimZ) {
+					z = 0;
+					if (++y >= dimY) {
+						y = 0;
+						x++;
+					}
+				}
+				return true;
+			}
+			
+			@Override
+			protected void onComplete() {
+				callback.accept(assumeAt(location, relX, relY, relZ, rotation, mirror));
+			}
+			
+		}, priority);
+	}
+	
+	/**
+	 * Build this multi-block structure over multiple ticks using the default {@link BlockChangeQueue}
+	 * @param loc The location to build the structure at
+	 * @param rotation The number of 90-degree clockwise rotations to apply
+	 * @param mirror Whether to mirror the structure on the X axis
+	 * @param callback A callback to accept the Structure instance that was created when construction is complete
+	 * @return The job building the structure, which can be cancelled
+	 */
+	public BlockChangeQueue.Job buildAsync(Location loc, int rotation, boolean mirror, Consumer<Structure> callback) {
+		return buildAsync(loc, 0, 0, 0, rotation, mirror, BlockChangeQueue.getDefault(), 0, callback);
+	}
+	
 	/**
 	 * Gets this multi-block structure's name. May be faster to compare this than to use .equals().
 	 * @return The name of this multi-block structure
@@ -11,7 +11,6 @@ import redempt.redlib.protection.ProtectionPolicy.ProtectionType;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -19,13 +18,12 @@ import java.util.function.Function;
 class ProtectionListener {
 	
 	private static boolean testAll(Block block, ProtectionType type, Player player) {
-		for (ProtectionPolicy policy : ProtectionPolicy.globalPolicies) {
+		for (ProtectionPolicy policy : ProtectionPolicy.getGlobalPolicies(type)) {
 			if (!policy.allow(block, type, player)) {
 				return false;
 			}
 		}
-		Set<ProtectionPolicy> applicable = ProtectionPolicy.regionMap.get(block.getLocation());
-		for (ProtectionPolicy policy : applicable) {
+		for (ProtectionPolicy policy : ProtectionPolicy.getRegionPolicies(block, type)) {
 			if (!policy.allow(block, type, player)) {
 				return false;
 			}
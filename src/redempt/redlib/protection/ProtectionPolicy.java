@@ -2,11 +2,13 @@ package redempt.redlib.protection;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.function.BiPredicate;
 import java.util.function.Predicate;
 
@@ -38,7 +40,9 @@ import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
 import redempt.redlib.RedLib;
+import redempt.redlib.misc.LongHashMap;
 import redempt.redlib.region.Region;
+import redempt.redlib.region.RegionBounds;
 import redempt.redlib.region.RegionMap;
 
 /**
@@ -48,10 +52,91 @@ import redempt.redlib.region.RegionMap;
  */
 public class ProtectionPolicy implements Listener {
 	
-	protected static Set<ProtectionPolicy> globalPolicies = new HashSet<>();
-	protected static RegionMap<ProtectionPolicy> regionMap = new RegionMap<>();
+	// Only changed alongside a call to invalidate, so that the compiled tables never go stale
+	private static Set<ProtectionPolicy> globalPolicies = new HashSet<>();
+	private static RegionMap<ProtectionPolicy> regionMap = new RegionMap<>();
 	private static boolean registered = false;
 	
+	// Decision tables mapping each protection type's ordinal to the policies which protect against it
+	private static final int MAX_CACHED_COLUMNS = 65536;
+	private static final ProtectionPolicy[] NONE = {};
+	private static final ProtectionPolicy[][] EMPTY_TABLE = new ProtectionPolicy[ProtectionType.ALL.length][];
+	private static ProtectionPolicy[][] globalTable;
+	private static Map<UUID, LongHashMap<ProtectionPolicy[][]>> columnTables = new HashMap<>();
+	private static int cachedColumns = 0;
+	
+	static {
+		Arrays.fill(EMPTY_TABLE, NONE);
+	}
+	
+	/**
+	 * Gets the global policies which protect against a type of action
+	 * @param type The type of action
+	 * @return The global policies protecting against the type. Must not be modified.
+	 */
+	static ProtectionPolicy[] getGlobalPolicies(ProtectionType type) {
+		if (globalTable == null) {
+			globalTable = compile(globalPolicies);
+		}
+		return globalTable[type.ordinal()];
+	}
+	
+	/**
+	 * Gets the region-bound policies whose bounds overlap the 16x16 column containing a block and which protect
+	 * against a type of action. The tables for each column are compiled the first time they are needed.
+	 * @param block The block
+	 * @param type The type of action
+	 * @return The region-bound policies which may protect the block against the type. Must not be modified.
+	 */
+	static ProtectionPolicy[] getRegionPolicies(Block block, ProtectionType type) {
+		UUID world = block.getWorld().getUID();
+		LongHashMap<ProtectionPolicy[][]> tables = columnTables.get(world);
+		if (tables == null) {
+			tables = new LongHashMap<>();
+			columnTables.put(world, tables);
+		}
+		int cx = block.getX() >> 4;
+		int cz = block.getZ() >> 4;
+		long key = ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+		ProtectionPolicy[][] table = tables.get(key);
+		if (table == null) {
+			if (cachedColumns >= MAX_CACHED_COLUMNS) {
+				clearColumns();
+				tables = new LongHashMap<>();
+				columnTables.put(world, tables);
+			}
+			List<ProtectionPolicy> policies = new ArrayList<>();
+			RegionBounds column = new RegionBounds(world, cx << 4, -Double.MAX_VALUE, cz << 4, (cx + 1) << 4, Double.MAX_VALUE, (cz + 1) << 4);
+			regionMap.query(column, policies::add);
+			table = compile(policies);
+			tables.put(key, table);
+			cachedColumns++;
+		}
+		return table[type.ordinal()];
+	}
+	
+	private static ProtectionPolicy[][] compile(Collection<ProtectionPolicy> policies) {
+		ProtectionPolicy[][] table = new ProtectionPolicy[ProtectionType.ALL.length][];
+		boolean empty = true;
+		for (ProtectionType type : ProtectionType.ALL) {
+			int bit = 1 << type.ordinal();
+			ProtectionPolicy[] matching = policies.stream().filter(p -> (p.protectionMask & bit) != 0).toArray(ProtectionPolicy[]::new);
+			table[type.ordinal()] = matching.length == 0 ? NONE : matching;
+			empty &= matching.length == 0;
+		}
+		return empty ? EMPTY_TABLE : table;
+	}
+	
+	private static void invalidate() {
+		globalTable = null;
+		clearColumns();
+	}
+	
+	private static void clearColumns() {
+		columnTables.clear();
+		cachedColumns = 0;
+	}
+	
 	public static void registerProtections() {
 		if (registered) {
 			return;
@@ -108,7 +193,7 @@ public class ProtectionPolicy implements Listener {
 	}
 	
 	private List<BypassPolicy> bypassPolicies = new ArrayList<>();
-	private Set<ProtectionType> protections = new HashSet<>();
+	private int protectionMask;
 	private Map<ProtectionType, String> messages = new HashMap<>();
 	private Predicate<Block> protectionCheck;
 	private Region bounds;
@@ -121,9 +206,10 @@ public class ProtectionPolicy implements Listener {
 	 */
 	public ProtectionPolicy(Region bounds, Predicate<Block> protectionCheck, ProtectionType... protections) {
 		this.bounds = bounds;
-		Arrays.stream(protections).forEach(this.protections::add);
+		protectionMask = mask(protections);
 		this.protectionCheck = protectionCheck;
 		regionMap.set(bounds, this);
+		invalidate();
 	}
 	
 	/**
@@ -134,8 +220,9 @@ public class ProtectionPolicy implements Listener {
 	 */
 	public ProtectionPolicy(Predicate<Block> protectionCheck, ProtectionType... protections) {
 		this.protectionCheck = protectionCheck;
-		Arrays.stream(protections).forEach(this.protections::add);
+		protectionMask = mask(protections);
 		globalPolicies.add(this);
+		invalidate();
 	}
 	
 	/**
@@ -143,8 +230,16 @@ public class ProtectionPolicy implements Listener {
 	 * @param protections The ProtectionTypes
 	 */
 	public void setProtectionTypes(ProtectionType... protections) {
-		this.protections.clear();
-		Arrays.stream(protections).forEach(this.protections::add);
+		protectionMask = mask(protections);
+		invalidate();
+	}
+	
+	private static int mask(ProtectionType... protections) {
+		int mask = 0;
+		for (ProtectionType type : protections) {
+			mask |= 1 << type.ordinal();
+		}
+		return mask;
 	}
 	
 	/**
@@ -153,9 +248,10 @@ public class ProtectionPolicy implements Listener {
 	public void disable() {
 		if (bounds == null) {
 			globalPolicies.remove(this);
-			return;
+		} else {
+			regionMap.remove(bounds, this);
 		}
-		regionMap.remove(bounds, this);
+		invalidate();
 	}
 	
 	/**
@@ -164,9 +260,10 @@ public class ProtectionPolicy implements Listener {
 	public void enable() {
 		if (bounds == null) {
 			globalPolicies.add(this);
-			return;
+		} else {
+			regionMap.set(bounds, this);
 		}
-		regionMap.set(bounds, this);
+		invalidate();
 	}
 	
 	/**
@@ -218,7 +315,12 @@ public class ProtectionPolicy implements Listener {
 	}
 	
 	private boolean canBypass(Player player, ProtectionType type, Block block) {
-		return bypassPolicies.stream().anyMatch(p -> p.canBypass(player, type, block));
+		for (int i = 0; i < bypassPolicies.size(); i++) {
+			if (bypassPolicies.get(i).canBypass(player, type, block)) {
+				return true;
+			}
+		}
+		return false;
 	}
 	
 	private void sendMessage(Player player, ProtectionType type) {
@@ -229,7 +331,7 @@ public class ProtectionPolicy implements Listener {
 	}
 	
 	public boolean allow(Block block, ProtectionType type, Player player) {
-		if (protections.contains(type) && protectionCheck.test(block)) {
+		if ((protectionMask & (1 << type.ordinal())) != 0 && protectionCheck.test(block)) {
 			if (canBypass(player, type, block)) {
 				return true;
 			}
@@ -246,7 +348,7 @@ public class ProtectionPolicy implements Listener {
 		if (e.getSpawnReason() == SpawnReason.CUSTOM) {
 			return;
 		}
-		if (protections.contains(ProtectionType.MOB_SPAWN) && protectionCheck.test(e.getLocation().getBlock())) {
+		if ((protectionMask & (1 << ProtectionType.MOB_SPAWN.ordinal())) != 0 && protectionCheck.test(e.getLocation().getBlock())) {
 			if (canBypass(null, ProtectionType.MOB_SPAWN, e.getLocation().getBlock())) {
 				return;
 			}
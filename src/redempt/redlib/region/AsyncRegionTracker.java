@@ -0,0 +1,413 @@
+package redempt.redlib.region;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import redempt.redlib.RedLib;
+import redempt.redlib.region.events.RegionEnterEvent.EnterCause;
+import redempt.redlib.region.events.RegionExitEvent.ExitCause;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Computes which regions players enter and exit on a worker thread. Each tick, the main thread publishes the positions
+ * of players who moved to another block, the worker compares them against an immutable copy of the event-enabled regions,
+ * and the main thread calls the resulting events on the next tick. The copy is updated on the main thread as regions
+ * have their events enabled or disabled, by publishing a new copy which shares everything but the changes. Used by {@link RegionEnterExitListener#setAsync(boolean)}.
+ * @author Redempt
+ */
+class AsyncRegionTracker {
+	
+	// Main thread state
+	private Map<UUID, Position> published = new HashMap<>();
+	private Set<UUID> teleported = new HashSet<>();
+	private int task;
+	
+	// Shared state
+	private ConcurrentLinkedQueue<Position> positions = new ConcurrentLinkedQueue<>();
+	private ConcurrentLinkedQueue<Change> changes = new ConcurrentLinkedQueue<>();
+	private volatile Index index;
+	private volatile boolean running = true;
+	private Thread worker;
+	
+	// Worker thread state
+	private Map<UUID, Tracked> tracked = new HashMap<>();
+	private Index lastIndex;
+	
+	public AsyncRegionTracker() {
+		index = new Index(RegionEnterExitListener.getRegionMap().getAll());
+		worker = new Thread(this::run, "RedLib region tracker");
+		worker.setDaemon(true);
+		worker.start();
+		task = Bukkit.getScheduler().scheduleSyncRepeatingTask(RedLib.getInstance(), this::tick, 1, 1);
+	}
+	
+	/**
+	 * Stops the worker thread. Events which have not been called yet are discarded.
+	 */
+	public void stop() {
+		running = false;
+		Bukkit.getScheduler().cancelTask(task);
+		LockSupport.unpark(worker);
+	}
+	
+	/**
+	 * Copies a region into the index read by the worker, replacing any copy of it taken earlier
+	 * @param region The region which had its events enabled
+	 */
+	public void regionEnabled(Region region) {
+		index = index.with(region);
+	}
+	
+	/**
+	 * Removes a region from the index read by the worker
+	 * @param region The region which had its events disabled
+	 */
+	public void regionDisabled(Region region) {
+		index = index.without(region);
+	}
+	
+	public void teleported(Player player) {
+		teleported.add(player.getUniqueId());
+	}
+	
+	public void joined(Player player) {
+		publish(new Position(player, player.getLocation(), Kind.JOIN));
+	}
+	
+	public void quit(Player player) {
+		published.remove(player.getUniqueId());
+		teleported.remove(player.getUniqueId());
+		positions.add(new Position(player, player.getLocation(), Kind.QUIT));
+		LockSupport.unpark(worker);
+	}
+	
+	private void tick() {
+		Change change;
+		while ((change = changes.poll()) != null) {
+			change.call();
+		}
+		boolean any = false;
+		for (Player player : Bukkit.getOnlinePlayers()) {
+			Location loc = player.getLocation();
+			Position last = published.get(player.getUniqueId());
+			boolean teleport = teleported.remove(player.getUniqueId());
+			if (last != null && last.isAt(loc) && !teleport) {
+				continue;
+			}
+			Position position = new Position(player, loc, last == null ? Kind.INIT : teleport ? Kind.TELEPORT : Kind.MOVE);
+			published.put(player.getUniqueId(), position);
+			positions.add(position);
+			any = true;
+		}
+		if (any) {
+			LockSupport.unpark(worker);
+		}
+	}
+	
+	private void publish(Position position) {
+		published.put(position.player.getUniqueId(), position);
+		positions.add(position);
+		LockSupport.unpark(worker);
+	}
+	
+	private void run() {
+		while (running) {
+			Position position;
+			while (running && (position = positions.poll()) != null) {
+				try {
+					process(position);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+			LockSupport.park(this);
+		}
+	}
+	
+	private void process(Position position) {
+		Index index = this.index;
+		if (index == null) {
+			return;
+		}
+		if (index != lastIndex) {
+			// Regions which had events enabled or disabled should not cause events for players already in them
+			lastIndex = index;
+			for (Tracked t : tracked.values()) {
+				t.regions = index.collect(t.position);
+			}
+		}
+		UUID id = position.player.getUniqueId();
+		if (position.kind == Kind.QUIT) {
+			Tracked t = tracked.remove(id);
+			if (t != null) {
+				t.regions.forEach(r -> changes.add(new Change(position.player, r, false, Kind.QUIT)));
+			}
+			return;
+		}
+		List<Region> current = index.collect(position);
+		Tracked t = tracked.get(id);
+		if (t == null) {
+			tracked.put(id, new Tracked(position, current));
+			if (position.kind == Kind.JOIN) {
+				current.forEach(r -> changes.add(new Change(position.player, r, true, Kind.JOIN)));
+			}
+			return;
+		}
+		for (Region region : t.regions) {
+			if (!current.contains(region)) {
+				changes.add(new Change(position.player, region, false, position.kind));
+			}
+		}
+		if (position.kind == Kind.MOVE) {
+			Location from = t.position.toLocation();
+			List<Region> passed = RegionEnterExitListener.sweep(index::query, p -> p.region, p -> p.bounds, p -> p.shape,
+					from, position.toLocation(), t.regions, current);
+			for (Region region : passed) {
+				changes.add(new Change(position.player, region, true, Kind.MOVE));
+				changes.add(new Change(position.player, region, false, Kind.MOVE));
+			}
+		}
+		for (Region region : current) {
+			if (!t.regions.contains(region)) {
+				changes.add(new Change(position.player, region, true, position.kind));
+			}
+		}
+		t.position = position;
+		t.regions = current;
+	}
+	
+	private static enum Kind {
+		INIT,
+		MOVE,
+		TELEPORT,
+		JOIN,
+		QUIT
+	}
+	
+	/**
+	 * A player's position at the time it was published. Only holds immutable values, so it can be read by the worker.
+	 */
+	private static class Position {
+		
+		private Player player;
+		private World world;
+		private UUID worldId;
+		private double x;
+		private double y;
+		private double z;
+		private Kind kind;
+		
+		public Position(Player player, Location loc, Kind kind) {
+			this.player = player;
+			this.world = loc.getWorld();
+			this.worldId = world.getUID();
+			this.x = loc.getX();
+			this.y = loc.getY();
+			this.z = loc.getZ();
+			this.kind = kind;
+		}
+		
+		public Location toLocation() {
+			return new Location(world, x, y, z);
+		}
+		
+		public boolean isAt(Location loc) {
+			return loc.getBlockX() == Location.locToBlock(x) && loc.getBlockY() == Location.locToBlock(y)
+					&& loc.getBlockZ() == Location.locToBlock(z) && loc.getWorld().getUID().equals(worldId);
+		}
+		
+	}
+	
+	private static class Tracked {
+		
+		private Position position;
+		private List<Region> regions;
+		
+		public Tracked(Position position, List<Region> regions) {
+			this.position = position;
+			this.regions = regions;
+		}
+		
+	}
+	
+	/**
+	 * An immutable copy of the event-enabled regions. Most regions are kept in a base map, and regions enabled or
+	 * disabled since it was built are kept in small sets next to it, so each change only copies those sets. Once they
+	 * grow too large, the base map is rebuilt from the existing copies without copying any regions again.
+	 */
+	private static class Index {
+		
+		private static final int MIN_CHANGES = 64;
+		
+		private RegionMap<Probe> base;
+		private Map<Region, Probe> baseProbes;
+		// Regions whose copy in the base map is outdated or disabled
+		private Set<Region> hidden;
+		// Copies of regions which are not in the base map, or which replace their copy in it
+		private Map<Region, Probe> added;
+		
+		public Index(Collection<Region> regions) {
+			Map<Region, Probe> probes = new HashMap<>();
+			for (Region region : regions) {
+				if (region.getBounds() != null) {
+					probes.put(region, new Probe(region));
+				}
+			}
+			build(probes);
+		}
+		
+		private Index(RegionMap<Probe> base, Map<Region, Probe> baseProbes, Set<Region> hidden, Map<Region, Probe> added) {
+			this.base = base;
+			this.baseProbes = baseProbes;
+			this.hidden = hidden;
+			this.added = added;
+			if (hidden.size() + added.size() > Math.max(MIN_CHANGES, baseProbes.size() / 16)) {
+				Map<Region, Probe> probes = new HashMap<>();
+				baseProbes.forEach((region, probe) -> {
+					if (!hidden.contains(region)) {
+						probes.put(region, probe);
+					}
+				});
+				probes.putAll(added);
+				build(probes);
+			}
+		}
+		
+		private void build(Map<Region, Probe> probes) {
+			base = new RegionMap<>();
+			probes.values().forEach(p -> base.set(p.bounds, p));
+			baseProbes = probes;
+			hidden = Collections.emptySet();
+			added = Collections.emptyMap();
+		}
+		
+		public Index with(Region region) {
+			if (region.getBounds() == null) {
+				return without(region);
+			}
+			Map<Region, Probe> added = new HashMap<>(this.added);
+			added.put(region, new Probe(region));
+			return new Index(base, baseProbes, hide(region), added);
+		}
+		
+		public Index without(Region region) {
+			Map<Region, Probe> added = this.added;
+			if (added.containsKey(region)) {
+				added = new HashMap<>(added);
+				added.remove(region);
+			}
+			return new Index(base, baseProbes, hide(region), added);
+		}
+		
+		private Set<Region> hide(Region region) {
+			if (!baseProbes.containsKey(region) || hidden.contains(region)) {
+				return hidden;
+			}
+			Set<Region> hidden = new HashSet<>(this.hidden);
+			hidden.add(region);
+			return hidden;
+		}
+		
+		public void query(RegionBounds bounds, Consumer<Probe> visitor) {
+			base.query(bounds, p -> {
+				if (!hidden.contains(p.region)) {
+					visitor.accept(p);
+				}
+			});
+			for (Probe probe : added.values()) {
+				if (probe.bounds.overlaps(bounds)) {
+					visitor.accept(probe);
+				}
+			}
+		}
+		
+		public List<Region> collect(Position position) {
+			List<Region> regions = new ArrayList<>();
+			Location loc = position.toLocation();
+			base.query(loc, p -> {
+				if (!hidden.contains(p.region) && p.contains(loc)) {
+					regions.add(p.region);
+				}
+			});
+			for (Probe probe : added.values()) {
+				if (probe.contains(loc)) {
+					regions.add(probe.region);
+				}
+			}
+			return regions;
+		}
+		
+	}
+	
+	/**
+	 * A copy of a region taken when its events were enabled. Cuboid regions are only checked through their immutable
+	 * bounds, while other regions are cloned and have their lazy indexes built up front so the worker only ever reads them.
+	 */
+	private static class Probe {
+		
+		private Region region;
+		private RegionBounds bounds;
+		private Region shape;
+		
+		public Probe(Region region) {
+			this.region = region;
+			if (region.getClass() == Region.class) {
+				bounds = region.getBounds();
+				return;
+			}
+			shape = region.clone();
+			shape.contains(shape.getStart());
+			bounds = shape.getBounds();
+		}
+		
+		public boolean contains(Location loc) {
+			return shape == null ? bounds.contains(loc) : shape.contains(loc);
+		}
+		
+	}
+	
+	/**
+	 * A region a player entered or exited, waiting for its event to be called on the main thread
+	 */
+	private static class Change {
+		
+		private Player player;
+		private Region region;
+		private boolean enter;
+		private Kind kind;
+		
+		public Change(Player player, Region region, boolean enter, Kind kind) {
+			this.player = player;
+			this.region = region;
+			this.enter = enter;
+			this.kind = kind;
+		}
+		
+		public void call() {
+			if (enter) {
+				EnterCause cause = kind == Kind.JOIN ? EnterCause.JOIN : kind == Kind.TELEPORT ? EnterCause.TELEPORT : EnterCause.MOVE;
+				RegionEnterExitListener.callEnterEvent(player, region, cause, null);
+				region.callEnterListeners(player, cause);
+				return;
+			}
+			ExitCause cause = kind == Kind.QUIT ? ExitCause.QUIT : kind == Kind.TELEPORT ? ExitCause.TELEPORT : ExitCause.MOVE;
+			RegionEnterExitListener.callExitEvent(player, region, cause, null);
+			region.callExitListeners(player, cause);
+		}
+		
+	}
+	
+}
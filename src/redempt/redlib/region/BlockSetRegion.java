@@ -1,18 +1,20 @@
 package redempt.redlib.region;
 
 import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.util.Vector;
-import redempt.redlib.misc.LocationUtils;
+import redempt.redlib.misc.LongHashMap;
 
 import java.util.*;
-import java.util.function.Consumer;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A Region made of a set of Blocks. Faster but more memory-intensive than MultiRegion. Limited functionality.
+ * Blocks are stored as one bit each in 16x16x16 sections relative to an origin, so moving the region only moves the origin.
  */
 public class BlockSetRegion extends Region {
 	
@@ -24,7 +26,19 @@ public class BlockSetRegion extends Region {
 		return blocks;
 	}
 	
-	private Set<Block> set = new HashSet<>();
+	private static long sectionKey(int x, int y, int z) {
+		return ((long) (x & 0x1FFFFF) << 42) | ((long) (y & 0x1FFFFF) << 21) | (z & 0x1FFFFF);
+	}
+	
+	private static int bit(int x, int y, int z) {
+		return ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+	}
+	
+	private LongHashMap<Section> sections = new LongHashMap<>();
+	private int size = 0;
+	private int originX = 0;
+	private int originY = 0;
+	private int originZ = 0;
 	private World world = null;
 	
 	/**
@@ -43,6 +57,10 @@ public class BlockSetRegion extends Region {
 		Arrays.stream(blocks).forEach(this::add);
 	}
 	
+	BlockSetRegion(World world) {
+		this.world = world;
+	}
+	
 	/**
 	 * Checks whether this BlockSetRegion contains a given Location
 	 * @param loc The location to check
@@ -50,7 +68,7 @@ public class BlockSetRegion extends Region {
 	 */
 	@Override
 	public boolean contains(Location loc) {
-		return set.contains(loc.getBlock());
+		return world != null && world.equals(loc.getWorld()) && contains(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
 	}
 	
 	/**
@@ -59,7 +77,22 @@ public class BlockSetRegion extends Region {
 	 * @return Whether this BlockSetRegion contains the given Block
 	 */
 	public boolean contains(Block block) {
-		return set.contains(block);
+		return world != null && world.equals(block.getWorld()) && contains(block.getX(), block.getY(), block.getZ());
+	}
+	
+	/**
+	 * Checks whether this BlockSetRegion contains the block at the given coordinates, without checking the world
+	 * @param x The X coordinate of the block
+	 * @param y The Y coordinate of the block
+	 * @param z The Z coordinate of the block
+	 * @return Whether this BlockSetRegion contains the block
+	 */
+	public boolean contains(int x, int y, int z) {
+		x -= originX;
+		y -= originY;
+		z -= originZ;
+		Section section = sections.get(sectionKey(x >> 4, y >> 4, z >> 4));
+		return section != null && section.get(bit(x, y, z));
 	}
 	
 	/**
@@ -67,7 +100,7 @@ public class BlockSetRegion extends Region {
 	 */
 	@Override
 	public int getBlockVolume() {
-		return set.size();
+		return size;
 	}
 	
 	/**
@@ -76,7 +109,7 @@ public class BlockSetRegion extends Region {
 	 */
 	@Override
 	public double getVolume() {
-		return set.size();
+		return size;
 	}
 	
 	/**
@@ -88,16 +121,20 @@ public class BlockSetRegion extends Region {
 	}
 	
 	/**
-	 * Moves this BlockSetRegion a given amount
+	 * Moves this BlockSetRegion a given amount. Each block is moved to the block containing its corner plus the vector.
 	 * @param v The vector to be applied to all blocks in this BlockSetRegion
 	 */
 	@Override
 	public void move(Vector v) {
-		Set<Block> clone = new HashSet<>();
-		for (Block block : set) {
-			clone.add(block.getLocation().add(v).getBlock());
+		int x = (int) Math.floor(v.getX());
+		int y = (int) Math.floor(v.getY());
+		int z = (int) Math.floor(v.getZ());
+		originX += x;
+		originY += y;
+		originZ += z;
+		if (start != null) {
+			setLocations(start.clone().add(x, y, z), end.clone().add(x, y, z));
 		}
-		set = clone;
 	}
 	
 	/**
@@ -105,7 +142,8 @@ public class BlockSetRegion extends Region {
 	 * @param loc The location to add
 	 */
 	public void add(Location loc) {
-		add(loc.getBlock());
+		setWorld(loc.getWorld());
+		add(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
 	}
 	
 	/**
@@ -113,15 +151,65 @@ public class BlockSetRegion extends Region {
 	 * @param block The block to add
 	 */
 	public void add(Block block) {
-		if (world == null) {
-			world = block.getWorld();
-			start = block.getLocation();
-			end = block.getLocation().add(1, 1, 1);
-		} else if (!block.getWorld().equals(world)) {
+		setWorld(block.getWorld());
+		add(block.getX(), block.getY(), block.getZ());
+	}
+	
+	/**
+	 * Adds every block in another BlockSetRegion to this one. If the two are aligned to the same 16x16x16 grid,
+	 * such as when neither has been moved by anything other than multiples of 16, whole sections are merged at once.
+	 * @param other The BlockSetRegion to add
+	 */
+	public void add(BlockSetRegion other) {
+		if (other.size == 0) {
+			return;
+		}
+		setWorld(other.world);
+		if (!isAligned(other)) {
+			other.forEachPosition(this::add);
+			return;
+		}
+		int dx = (other.originX - originX) >> 4;
+		int dy = (other.originY - originY) >> 4;
+		int dz = (other.originZ - originZ) >> 4;
+		other.sections.forEachValue(s -> {
+			Section section = sections.computeIfAbsent(sectionKey(s.x + dx, s.y + dy, s.z + dz), k -> new Section(s.x + dx, s.y + dy, s.z + dz));
+			size -= section.count;
+			section.or(s);
+			size += section.count;
+		});
+		expandBounds(other.start.getBlockX(), other.start.getBlockY(), other.start.getBlockZ());
+		expandBounds(other.end.getBlockX() - 1, other.end.getBlockY() - 1, other.end.getBlockZ() - 1);
+	}
+	
+	void add(int x, int y, int z) {
+		int lx = x - originX;
+		int ly = y - originY;
+		int lz = z - originZ;
+		Section section = sections.computeIfAbsent(sectionKey(lx >> 4, ly >> 4, lz >> 4), k -> new Section(lx >> 4, ly >> 4, lz >> 4));
+		if (section.set(bit(lx, ly, lz))) {
+			size++;
+			expandBounds(x, y, z);
+		}
+	}
+	
+	private void setWorld(World world) {
+		if (this.world == null) {
+			this.world = world;
+		} else if (!this.world.equals(world)) {
 			throw new IllegalArgumentException("All blocks must be in the same world!");
 		}
-		set.add(block);
-		end = block.getLocation().add(1, 1, 1);
+	}
+	
+	private void expandBounds(int x, int y, int z) {
+		if (start == null) {
+			setLocations(new Location(world, x, y, z), new Location(world, x + 1, y + 1, z + 1));
+			return;
+		}
+		if (x < start.getX() || y < start.getY() || z < start.getZ() || x + 1 > end.getX() || y + 1 > end.getY() || z + 1 > end.getZ()) {
+			setLocations(new Location(world, Math.min(start.getX(), x), Math.min(start.getY(), y), Math.min(start.getZ(), z)),
+					new Location(world, Math.max(end.getX(), x + 1), Math.max(end.getY(), y + 1), Math.max(end.getZ(), z + 1)));
+		}
 	}
 	
 	/**
@@ -129,7 +217,9 @@ public class BlockSetRegion extends Region {
 	 * @param block The Block to remove
 	 */
 	public void remove(Block block) {
-		set.remove(block);
+		if (world != null && world.equals(block.getWorld())) {
+			remove(block.getX(), block.getY(), block.getZ());
+		}
 	}
 	
 	/**
@@ -137,7 +227,113 @@ public class BlockSetRegion extends Region {
 	 * @param loc The location to remove
 	 */
 	public void remove(Location loc) {
-		set.remove(loc.getBlock());
+		if (world != null && world.equals(loc.getWorld())) {
+			remove(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+		}
+	}
+	
+	private void remove(int x, int y, int z) {
+		x -= originX;
+		y -= originY;
+		z -= originZ;
+		long key = sectionKey(x >> 4, y >> 4, z >> 4);
+		Section section = sections.get(key);
+		if (section != null && section.clear(bit(x, y, z))) {
+			size--;
+			if (section.count == 0) {
+				sections.remove(key);
+			}
+		}
+	}
+	
+	/**
+	 * Gets the blocks which are in both this BlockSetRegion and another. If the two are aligned to the same 16x16x16
+	 * grid, whole sections are intersected at once.
+	 * @param other The other BlockSetRegion
+	 * @return A new BlockSetRegion containing only the blocks in both
+	 */
+	public BlockSetRegion getIntersection(BlockSetRegion other) {
+		BlockSetRegion intersection = new BlockSetRegion();
+		if (world == null || !world.equals(other.world)) {
+			return intersection;
+		}
+		if (!isAligned(other)) {
+			BlockSetRegion smaller = size <= other.size ? this : other;
+			BlockSetRegion larger = smaller == this ? other : this;
+			intersection.world = world;
+			smaller.forEachPosition((x, y, z) -> {
+				if (larger.contains(x, y, z)) {
+					intersection.add(x, y, z);
+				}
+			});
+			return intersection;
+		}
+		intersection.world = world;
+		intersection.originX = originX;
+		intersection.originY = originY;
+		intersection.originZ = originZ;
+		int dx = (other.originX - originX) >> 4;
+		int dy = (other.originY - originY) >> 4;
+		int dz = (other.originZ - originZ) >> 4;
+		other.sections.forEachValue(s -> {
+			Section section = sections.get(sectionKey(s.x + dx, s.y + dy, s.z + dz));
+			if (section == null) {
+				return;
+			}
+			Section result = new Section(section.x, section.y, section.z);
+			result.or(section);
+			result.and(s);
+			if (result.count == 0) {
+				return;
+			}
+			intersection.sections.put(sectionKey(result.x, result.y, result.z), result);
+			intersection.size += result.count;
+			result.forEach((x, y, z) -> intersection.expandBounds(x + originX, y + originY, z + originZ));
+		});
+		return intersection;
+	}
+	
+	/**
+	 * Gets cuboids which together cover exactly the blocks in this BlockSetRegion, without overlapping. Each is an array
+	 * of the minimum X, Y and Z block coordinates followed by the exclusive maximum X, Y and Z block coordinates.
+	 * @return The cuboids
+	 */
+	List<int[]> getBoxes() {
+		List<int[]> boxes = new ArrayList<>();
+		sections.forEachValue(s -> s.addBoxes(boxes, originX, originY, originZ));
+		return boxes;
+	}
+	
+	private boolean isAligned(BlockSetRegion other) {
+		return ((other.originX - originX) & 15) == 0 && ((other.originY - originY) & 15) == 0 && ((other.originZ - originZ) & 15) == 0;
+	}
+	
+	/**
+	 * Runs a lambda on the coordinates of every block in this BlockSetRegion, without looking up any Blocks
+	 * @param visitor The lambda to be run on each block's coordinates
+	 */
+	@Override
+	public void forEachPosition(PositionVisitor visitor) {
+		sections.forEachValue(s -> s.forEach((x, y, z) -> visitor.accept(x + originX, y + originY, z + originZ)));
+	}
+	
+	/**
+	 * Run a lambda on every block in this BlockSetRegion with a read-only {@link ChunkSnapshot} of the chunk it is in.
+	 * A snapshot is taken once for each chunk, and kept until every block has been visited.
+	 * @param visitor The lambda to be run on each block's snapshot and coordinates
+	 */
+	@Override
+	public void forEachSnapshot(SnapshotVisitor visitor) {
+		LongHashMap<ChunkSnapshot> snapshots = new LongHashMap<>();
+		forEachPosition((x, y, z) -> {
+			long key = ((long) (x >> 4) << 32) | ((z >> 4) & 0xFFFFFFFFL);
+			ChunkSnapshot snapshot = snapshots.get(key);
+			if (snapshot == null) {
+				snapshot = world.getChunkAt(x >> 4, z >> 4).getChunkSnapshot(false, false, false);
+				snapshots.put(key, snapshot);
+			}
+			visitor.accept(snapshot, x, y, z);
+		});
 	}
 	
 	/**
@@ -147,7 +343,21 @@ public class BlockSetRegion extends Region {
 	 */
 	@Override
 	public boolean overlaps(Region other) {
-		return set.stream().map(b -> b.getLocation()).anyMatch(other::contains);
+		if (other instanceof BlockSetRegion) {
+			return getIntersection((BlockSetRegion) other).getBlockVolume() > 0;
+		}
+		Location loc = new Location(world, 0, 0, 0);
+		boolean[] overlaps = {false};
+		forEachPosition((x, y, z) -> {
+			if (overlaps[0]) {
+				return;
+			}
+			loc.setX(x);
+			loc.setY(y);
+			loc.setZ(z);
+			overlaps[0] = other.contains(loc);
+		});
+		return overlaps[0];
 	}
 	
 	/**
@@ -155,7 +365,17 @@ public class BlockSetRegion extends Region {
 	 */
 	@Override
 	public BlockSetRegion clone() {
-		return new BlockSetRegion(set);
+		BlockSetRegion clone = new BlockSetRegion();
+		clone.world = world;
+		clone.size = size;
+		clone.originX = originX;
+		clone.originY = originY;
+		clone.originZ = originZ;
+		if (start != null) {
+			clone.setLocations(start, end);
+		}
+		sections.forEach((key, section) -> clone.sections.put(key, section.clone()));
+		return clone;
 	}
 	
 	/**
@@ -172,12 +392,42 @@ public class BlockSetRegion extends Region {
 	 */
 	@Override
 	public Stream<Block> stream() {
-		return set.stream();
-	}
-	
-	@Override
-	public void forEachBlock(Consumer<Block> lambda) {
-		stream().forEach(lambda);
+		Iterator<Block> iterator = new Iterator<Block>() {
+			
+			private Iterator<Section> sections = BlockSetRegion.this.sections.values().iterator();
+			private Section section;
+			private int word = 64;
+			private long bits = 0;
+			
+			@Override
+			public boolean hasNext() {
+				while (bits == 0) {
+					if (word < 63) {
+						bits = section.bits[++word];
+						continue;
+					}
+					if (!sections.hasNext()) {
+						return false;
+					}
+					section = sections.next();
+					word = -1;
+				}
+				return true;
+			}
+			
+			@Override
+			public Block next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				int bit = (word << 6) | Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				return world.getBlockAt((section.x << 4) + (bit & 15) + originX, (section.y << 4) + (bit >> 8) + originY,
+						(section.z << 4) + ((bit >> 4) & 15) + originZ);
+			}
+			
+		};
+		return StreamSupport.stream(Spliterators.spliterator(iterator, size, Spliterator.DISTINCT | Spliterator.NONNULL), false);
 	}
 	
 	/**
@@ -186,11 +436,7 @@ public class BlockSetRegion extends Region {
 	 */
 	public String toString() {
 		StringBuilder builder = new StringBuilder(getWorld().getName()).append(" ");
-		for (Block block : set) {
-			String str = LocationUtils.toString(block.getLocation());
-			str = str.substring(str.indexOf(' ') + 1);
-			builder.append(str).append(",");
-		}
+		forEachPosition((x, y, z) -> builder.append((double) x).append(' ').append((double) y).append(' ').append((double) z).append(","));
 		return builder.substring(0, builder.length() - 1);
 	}
 	
@@ -204,11 +450,153 @@ public class BlockSetRegion extends Region {
 		World world = Bukkit.getWorld(input.substring(0, pos));
 		input = input.substring(pos + 1);
 		String[] split = input.split(",");
-		Set<Block> set = new HashSet<>();
+		BlockSetRegion region = new BlockSetRegion();
+		region.world = world;
 		for (String string : split) {
-			set.add(LocationUtils.fromString(new StringBuilder(world.getName()).append(" ").append(string).toString()).getBlock());
+			String[] coords = string.split(" ");
+			region.add((int) Math.floor(Double.parseDouble(coords[0])), (int) Math.floor(Double.parseDouble(coords[1])),
+					(int) Math.floor(Double.parseDouble(coords[2])));
+		}
+		return region;
+	}
+	
+	private static class Section {
+		
+		private int x;
+		private int y;
+		private int z;
+		private long[] bits = new long[64];
+		private int count = 0;
+		
+		public Section(int x, int y, int z) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+		
+		public boolean get(int bit) {
+			return (bits[bit >> 6] & (1L << bit)) != 0;
+		}
+		
+		public boolean set(int bit) {
+			long word = bits[bit >> 6];
+			bits[bit >> 6] = word | (1L << bit);
+			if (word == bits[bit >> 6]) {
+				return false;
+			}
+			count++;
+			return true;
+		}
+		
+		public boolean clear(int bit) {
+			long word = bits[bit >> 6];
+			bits[bit >> 6] = word & ~(1L << bit);
+			if (word == bits[bit >> 6]) {
+				return false;
+			}
+			count--;
+			return true;
+		}
+		
+		public void or(Section other) {
+			count = 0;
+			for (int i = 0; i < 64; i++) {
+				bits[i] |= other.bits[i];
+				count += Long.bitCount(bits[i]);
+			}
+		}
+		
+		public void and(Section other) {
+			count = 0;
+			for (int i = 0; i < 64; i++) {
+				bits[i] &= other.bits[i];
+				count += Long.bitCount(bits[i]);
+			}
+		}
+		
+		public void forEach(PositionVisitor lambda) {
+			for (int i = 0; i < 64; i++) {
+				long word = bits[i];
+				while (word != 0) {
+					int bit = (i << 6) | Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+					lambda.accept((x << 4) + (bit & 15), (y << 4) + (bit >> 8), (z << 4) + ((bit >> 4) & 15));
+				}
+			}
+		}
+		
+		/**
+		 * Adds cuboids covering the blocks in this section to a list. Runs of blocks along the X axis are merged into
+		 * rectangles along the Z axis, then rectangles with the same shape in consecutive layers are merged along the Y axis.
+		 */
+		public void addBoxes(List<int[]> boxes, int originX, int originY, int originZ) {
+			List<int[]> local = new ArrayList<>();
+			List<int[]> below = new ArrayList<>();
+			for (int y = 0; y < 16; y++) {
+				List<int[]> rects = new ArrayList<>();
+				List<int[]> lastRow = new ArrayList<>();
+				for (int z = 0; z < 16; z++) {
+					int row = (int) (bits[(y << 2) | (z >> 2)] >>> ((z & 3) << 4)) & 0xFFFF;
+					List<int[]> currentRow = new ArrayList<>();
+					int p = 0;
+					while (row != 0) {
+						int x0 = Integer.numberOfTrailingZeros(row);
+						int x1 = x0 + Integer.numberOfTrailingZeros(~(row >>> x0));
+						row &= -1 << x1;
+						while (p < lastRow.size() && lastRow.get(p)[0] < x0) {
+							p++;
+						}
+						int[] rect;
+						if (p < lastRow.size() && lastRow.get(p)[0] == x0 && lastRow.get(p)[3] == x1) {
+							rect = lastRow.get(p);
+							rect[5] = z + 1;
+						} else {
+							rect = new int[] {x0, y, z, x1, y + 1, z + 1};
+							rects.add(rect);
+						}
+						currentRow.add(rect);
+					}
+					lastRow = currentRow;
+				}
+				// Both lists are ordered by minimum Z, then minimum X
+				List<int[]> top = new ArrayList<>(rects.size());
+				int p = 0;
+				for (int[] rect : rects) {
+					while (p < below.size() && (below.get(p)[2] < rect[2] || (below.get(p)[2] == rect[2] && below.get(p)[0] < rect[0]))) {
+						p++;
+					}
+					int[] box = p < below.size() ? below.get(p) : null;
+					if (box != null && box[0] == rect[0] && box[2] == rect[2] && box[3] == rect[3] && box[5] == rect[5]) {
+						box[4] = y + 1;
+						top.add(box);
+						continue;
+					}
+					local.add(rect);
+					top.add(rect);
+				}
+				below = top;
+			}
+			int offsetX = (this.x << 4) + originX;
+			int offsetY = (this.y << 4) + originY;
+			int offsetZ = (this.z << 4) + originZ;
+			for (int[] box : local) {
+				box[0] += offsetX;
+				box[1] += offsetY;
+				box[2] += offsetZ;
+				box[3] += offsetX;
+				box[4] += offsetY;
+				box[5] += offsetZ;
+				boxes.add(box);
+			}
+		}
+		
+		public Section clone() {
+			Section clone = new Section(x, y, z);
+			clone.bits = bits.clone();
+			clone.count = count;
+			return clone;
 		}
-		return new BlockSetRegion(set);
+		
 	}
 	
 }
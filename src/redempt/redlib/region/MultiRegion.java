@@ -17,11 +17,11 @@ import java.util.stream.Stream;
  */
 public class MultiRegion extends Region {
 	
-	private static BlockFace[] faces = {BlockFace.UP, BlockFace.DOWN, BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST};
-	
 	private List<Region> regions = new ArrayList<>();
 	private List<Region> subtract = new ArrayList<>();
 	private boolean clustered = false;
+	private RegionTree tree;
+	private RegionTree subtractTree;
 	
 	/**
 	 * Construct a MultiRegion using a list of Regions
@@ -33,7 +33,7 @@ public class MultiRegion extends Region {
 		}
 		World world = regions.get(0).getWorld();
 		for (Region region : regions) {
-			if (region.isMulti()) {
+			if (region instanceof MultiRegion) {
 				clustered = true;
 			}
 			if (!region.getWorld().equals(world)) {
@@ -45,32 +45,30 @@ public class MultiRegion extends Region {
 	}
 	
 	private void fixCorners(Region r) {
+		World world = regions.get(0).getWorld();
 		if (r == null) {
-			World world = regions.get(0).getWorld();
-			double minX = this.regions.stream().min((a, b) -> (int) Math.signum(a.getStart().getX() - b.getStart().getX())).get().getStart().getX();
-			double minY = this.regions.stream().min((a, b) -> (int) Math.signum(a.getStart().getY() - b.getStart().getY())).get().getStart().getY();
-			double minZ = this.regions.stream().min((a, b) -> (int) Math.signum(a.getStart().getZ() - b.getStart().getZ())).get().getStart().getZ();
-			
-			double maxX = this.regions.stream().max((a, b) -> (int) Math.signum(a.getEnd().getX() - b.getEnd().getX())).get().getEnd().getX();
-			double maxY = this.regions.stream().max((a, b) -> (int) Math.signum(a.getEnd().getY() - b.getEnd().getY())).get().getEnd().getY();
-			double maxZ = this.regions.stream().max((a, b) -> (int) Math.signum(a.getEnd().getZ() - b.getEnd().getZ())).get().getEnd().getZ();
-			
-			start = new Location(world, minX, minY, minZ);
-			end = new Location(world, maxX, maxY, maxZ);
+			double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+			double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+			for (Region region : regions) {
+				minX = Math.min(minX, region.start.getX());
+				minY = Math.min(minY, region.start.getY());
+				minZ = Math.min(minZ, region.start.getZ());
+				maxX = Math.max(maxX, region.end.getX());
+				maxY = Math.max(maxY, region.end.getY());
+				maxZ = Math.max(maxZ, region.end.getZ());
+			}
+			setLocations(new Location(world, minX, minY, minZ), new Location(world, maxX, maxY, maxZ));
 			return;
 		}
-		World world = regions.get(0).getWorld();
-		double minX = Math.min(start.getX(), r.getStart().getX());
-		double minY = Math.min(start.getY(), r.getStart().getY());
-		double minZ = Math.min(start.getZ(), r.getStart().getZ());
+		double minX = Math.min(start.getX(), r.start.getX());
+		double minY = Math.min(start.getY(), r.start.getY());
+		double minZ = Math.min(start.getZ(), r.start.getZ());
 		
-		double maxX = Math.max(end.getX(), r.getEnd().getX());
-		double maxY = Math.max(end.getY(), r.getEnd().getY());
-		double maxZ = Math.max(end.getZ(), r.getEnd().getZ());
+		double maxX = Math.max(end.getX(), r.end.getX());
+		double maxY = Math.max(end.getY(), r.end.getY());
+		double maxZ = Math.max(end.getZ(), r.end.getZ());
 		
-		start = new Location(world, minX, minY, minZ);
-		end = new Location(world, maxX, maxY, maxZ);
-		return;
+		setLocations(new Location(world, minX, minY, minZ), new Location(world, maxX, maxY, maxZ));
 	}
 	
 	/**
@@ -89,16 +87,18 @@ public class MultiRegion extends Region {
 		if (!region.getWorld().equals(getWorld())) {
 			throw new IllegalArgumentException("Region is not in the same world as this MultiRegion");
 		}
-		if (region.isMulti() && !clustered) {
+		if (region instanceof MultiRegion && !clustered) {
 			MultiRegion multi = (MultiRegion) region;
 			for (Region r : multi.getRegions()) {
 				regions.add(r.clone());
 			}
 			fixCorners(region);
+			invalidate();
 			return;
 		}
 		regions.add(region.clone());
 		fixCorners(region);
+		invalidate();
 	}
 	
 	/**
@@ -111,14 +111,16 @@ public class MultiRegion extends Region {
 		if (!region.getWorld().equals(getWorld())) {
 			throw new IllegalArgumentException("Region is not in the same world as this MultiRegion");
 		}
-		if (region.isMulti()) {
+		if (region instanceof MultiRegion) {
 			MultiRegion multi = (MultiRegion) region;
 			for (Region r : multi.getRegions()) {
 				subtract.add(r.clone());
 			}
+			invalidate();
 			return;
 		}
 		subtract.add(region.clone());
+		invalidate();
 	}
 	
 	/**
@@ -134,15 +136,35 @@ public class MultiRegion extends Region {
 				|| location.getX() > end.getX() || location.getY() > end.getY() || location.getZ() > end.getZ()) {
 			return false;
 		}
-		return contains(regions, location) && !contains(subtract, location);
+		RegionTree tree = this.tree;
+		if (tree == null || tree.size() != regions.size()) {
+			tree = this.tree = new RegionTree(regions);
+		}
+		if (!tree.contains(location)) {
+			return false;
+		}
+		if (subtract.size() == 0) {
+			return true;
+		}
+		RegionTree subtractTree = this.subtractTree;
+		if (subtractTree == null || subtractTree.size() != subtract.size()) {
+			subtractTree = this.subtractTree = new RegionTree(subtract);
+		}
+		return !subtractTree.contains(location);
 	}
 	
-	private static boolean contains(List<Region> regions, Location loc) {
-		return regions.stream().anyMatch(r -> r.contains(loc));
+	/**
+	 * Discards the spatial indexes over the Regions, so they will be rebuilt on the next call to
+	 * {@link MultiRegion#contains(Location)}
+	 */
+	private void invalidate() {
+		tree = null;
+		subtractTree = null;
 	}
 	
 	/**
-	 * Gets all the cuboid Regions that form this MultiRegion
+	 * Gets all the cuboid Regions that form this MultiRegion. If the Regions in the returned list are moved or
+	 * replaced directly, rather than through this MultiRegion, {@link MultiRegion#contains(Location)} may not see the change.
 	 * @return The list of Regions that form this MultiRegion
 	 */
 	public List<Region> getRegions() {
@@ -198,7 +220,9 @@ public class MultiRegion extends Region {
 	public MultiRegion clone() {
 		List<Region> clone = new ArrayList<>();
 		regions.stream().map(Region::clone).forEach(clone::add);
-		return new MultiRegion(clone);
+		MultiRegion multi = new MultiRegion(clone);
+		subtract.forEach(multi::subtract);
+		return multi;
 	}
 	
 	/**
@@ -221,6 +245,7 @@ public class MultiRegion extends Region {
 			r.expand(direction.getOppositeFace(), -r.measureBlocks(direction));
 			r.expand(direction.getOppositeFace(), Math.abs(amount));
 			subtract.add(r);
+			invalidate();
 			return;
 		}
 		Region r = new Region(start, end);
@@ -263,7 +288,9 @@ public class MultiRegion extends Region {
 	}
 	
 	/**
-	 * automatically clusters regions in clusters of 10 until there are less than 25 top-level regions
+	 * automatically clusters regions in clusters of 10 until there are less than 25 top-level regions.
+	 * {@link MultiRegion#contains(Location)} already uses a bounding volume hierarchy over the Regions,
+	 * so clustering is rarely needed for performance.
 	 */
 	public void autoCluster() {
 		while (regions.size() > 25) {
@@ -272,11 +299,10 @@ public class MultiRegion extends Region {
 	}
 	
 	/**
-	 * Smartly groups Regions in close proximity into clusters. Since {@link MultiRegion#contains(Location)} first checks
-	 * if the given Location is within the extreme corners of a MultiRegion, this will significantly increase the performance
-	 * of {@link MultiRegion#contains(Location)} for MultiRegions which contain many Regions by allowing it to skip having
-	 * to check {@link Region#contains(Location)} on many nearby Regions. This method can be called multiple times, which
-	 * will further cluster the clusters. It is recommended to use {@link MultiRegion#autoCluster()} in most cases.
+	 * Smartly groups Regions in close proximity into clusters. This method can be called multiple times, which
+	 * will further cluster the clusters. Since {@link MultiRegion#contains(Location)} uses a bounding volume hierarchy
+	 * over the Regions, only skipping those whose bounds do not contain the Location, clustering no longer speeds it up.
+	 * It is recommended to use {@link MultiRegion#autoCluster()} in most cases.
 	 * @param per The number of Regions that should be in each cluster
 	 */
 	public void cluster(int per) {
@@ -337,6 +363,7 @@ public class MultiRegion extends Region {
 			cluster.add(current);
 		}
 		this.regions = cluster;
+		invalidate();
 	}
 	
 	private double getApproxRadius(Region region) {
@@ -354,7 +381,7 @@ public class MultiRegion extends Region {
 		clustered = false;
 		List<Region> regions = new ArrayList<>();
 		for (Region region : this.regions) {
-			if (region.isMulti()) {
+			if (region instanceof MultiRegion) {
 				MultiRegion multi = (MultiRegion) region.clone();
 				multi.decluster();
 				regions.addAll(multi.getRegions());
@@ -363,6 +390,7 @@ public class MultiRegion extends Region {
 			regions.add(region);
 		}
 		this.regions = regions;
+		invalidate();
 	}
 	
 	/**
@@ -382,7 +410,7 @@ public class MultiRegion extends Region {
 		}
 		int count = 0;
 		for (Region region : regions) {
-			if (region.isMulti()) {
+			if (region instanceof MultiRegion) {
 				count += ((MultiRegion) region).getRegionCount();
 				continue;
 			}
@@ -401,10 +429,13 @@ public class MultiRegion extends Region {
 		if (!o.getWorld().equals(getWorld())) {
 			return false;
 		}
-		if (o.isMulti()) {
+		if (o instanceof MultiRegion) {
 			MultiRegion multi = (MultiRegion) o;
 			return multi.getRegions().stream().anyMatch(r -> r.overlaps(this));
 		}
+		if (o instanceof BlockSetRegion) {
+			return o.overlaps(this);
+		}
 		return regions.stream().anyMatch(r -> r.overlaps(o));
 	}
 	
@@ -414,16 +445,17 @@ public class MultiRegion extends Region {
 	 * @return The overlapping portions of the Regions
 	 */
 	public BlockSetRegion getIntersection(Region other) {
-		BlockSetRegion[] start = {new BlockSetRegion()};
-		other.stream().map(Block::getLocation).forEach(l -> {
-			if (contains(l)) {
-				start[0].add(l);
+		BlockSetRegion intersection = new BlockSetRegion(getWorld());
+		Location loc = new Location(getWorld(), 0, 0, 0);
+		other.forEachPosition((x, y, z) -> {
+			loc.setX(x);
+			loc.setY(y);
+			loc.setZ(z);
+			if (contains(loc)) {
+				intersection.add(x, y, z);
 			}
 		});
-		if (start[0] == null) {
-			return null;
-		}
-		return start[0];
+		return intersection;
 	}
 	
 	/**
@@ -433,8 +465,8 @@ public class MultiRegion extends Region {
 	@Override
 	public void move(Vector v) {
 		regions.forEach(r -> r.move(v));
-		start = start.add(v);
-		end = end.add(v);
+		setLocations(start.clone().add(v), end.clone().add(v));
+		invalidate();
 	}
 	
 	/**
@@ -451,72 +483,109 @@ public class MultiRegion extends Region {
 	/**
 	 * Recalculates this region to ensure it is using close to the least possible number of sub-regions with no overlaps.
 	 * This will coalesce the MultiRegion into only added Regions, but subtracted Regions will not be included
-	 * in any of the Regions. Calling this method is somewhat expensive, but will make all other operations
-	 * on this MultiRegion faster.
+	 * in any of the Regions. The blocks covered by this MultiRegion are found on a grid built from the edges of its
+	 * Regions, then greedily split into cuboids, so recalculating does not need to access any Blocks and will make
+	 * all other operations on this MultiRegion faster.
 	 * @param autoCluster Whether to automatically cluster regions in clusters of 10 until there are less than 25 top-level regions
 	 */
 	public void recalculate(boolean autoCluster) {
 		decluster();
-		List<Region> regions = this.regions;
+		List<int[]> added = new ArrayList<>();
+		List<int[]> removed = new ArrayList<>();
+		regions.forEach(r -> addBoxes(r, added));
+		subtract.forEach(r -> addBoxes(r, removed));
+		if (added.size() > 0) {
+			clamp(removed, added);
+		}
+		VoxelGrid grid = new VoxelGrid(getGridLines(added, removed, 0), getGridLines(added, removed, 1), getGridLines(added, removed, 2));
+		added.forEach(b -> grid.set(b[0], b[1], b[2], b[3], b[4], b[5], true));
+		removed.forEach(b -> grid.set(b[0], b[1], b[2], b[3], b[4], b[5], false));
+		World world = getWorld();
 		List<Region> newRegions = new ArrayList<>();
-		BlockSetRegion blocks = new BlockSetRegion();
-		newRegions.addAll(subtract);
-		Location center = start.clone().add(end).multiply(0.5).getBlock().getLocation();
-		Region r = new Region(center, center.clone().add(1, 1, 1));
-		expandToMax(r, blocks);
-		if (contains(center)) {
-			newRegions.add(r);
-			r.stream().forEach(blocks::add);
-		}
-		boolean[] added = {true};
-		List<Region> toRemove = new ArrayList<>();
-		while (added[0]) {
-			added[0] = false;
-			for (Region region : regions) {
-				region.stream().map(Block::getLocation)
-						.filter(l -> this.contains(l) && !contains(newRegions, l))
-						.min((a, b) -> (int) Math.signum(a.distanceSquared(center) - b.distanceSquared(center)))
-						.ifPresent(l -> {
-							added[0] = true;
-							Region reg = new Region(l, l.clone().add(1, 1, 1));
-							expandToMax(reg, blocks);
-							newRegions.add(reg);
-							reg.stream().forEach(blocks::add);
-				});
-				if (region.stream().allMatch(blocks::contains)) {
-					toRemove.add(region);
-				}
-			}
-			regions.removeAll(toRemove);
-			toRemove.clear();
+		for (int[] box : grid.decompose()) {
+			newRegions.add(new Region(new Location(world, box[0], box[1], box[2]), new Location(world, box[3], box[4], box[5])));
 		}
-		newRegions.removeAll(subtract);
 		this.regions = newRegions;
 		subtract.clear();
+		if (newRegions.size() > 0) {
+			fixCorners(null);
+		}
+		invalidate();
 		if (!autoCluster) {
 			return;
 		}
 		autoCluster();
 	}
 	
-	private void expandToMax(Region r, BlockSetRegion exclude) {
-		List<BlockFace> faces = new ArrayList<>(6);
-		List<BlockFace> toRemove = new ArrayList<>();
-		Arrays.stream(MultiRegion.faces).forEach(faces::add);
-		while (faces.size() > 0) {
-			for (int i = 0; i < faces.size(); i++) {
-				BlockFace face = faces.get(i);
-				Region clone = r.clone();
-				clone.expand(face.getOppositeFace(), -(clone.measureBlocks(face) - 1));
-				clone.move(face.getDirection());
-				if (clone.stream().map(Block::getLocation).allMatch(l -> this.contains(l) && !exclude.contains(l))) {
-					r.expand(face, 1);
-					continue;
+	/**
+	 * Adds the bounds of the blocks a Region covers to a list, as arrays of the minimum X, Y and Z block coordinates
+	 * followed by the exclusive maximum X, Y and Z block coordinates
+	 */
+	private static void addBoxes(Region region, List<int[]> boxes) {
+		if (region instanceof BlockSetRegion) {
+			boxes.addAll(((BlockSetRegion) region).getBoxes());
+			return;
+		}
+		// A block is contained if its corner is, so the block coordinates are rounded up on both sides
+		int[] box = {
+				(int) Math.ceil(region.start.getX()), (int) Math.ceil(region.start.getY()), (int) Math.ceil(region.start.getZ()),
+				(int) Math.ceil(region.end.getX()), (int) Math.ceil(region.end.getY()), (int) Math.ceil(region.end.getZ())
+		};
+		if (box[0] < box[3] && box[1] < box[4] && box[2] < box[5]) {
+			boxes.add(box);
+		}
+	}
+	
+	private static void clamp(List<int[]> boxes, List<int[]> bounds) {
+		int[] extent = bounds.get(0).clone();
+		for (int[] box : bounds) {
+			for (int i = 0; i < 3; i++) {
+				extent[i] = Math.min(extent[i], box[i]);
+				extent[i + 3] = Math.max(extent[i + 3], box[i + 3]);
+			}
+		}
+		boxes.removeIf(box -> {
+			for (int i = 0; i < 3; i++) {
+				box[i] = Math.max(box[i], extent[i]);
+				box[i + 3] = Math.min(box[i + 3], extent[i + 3]);
+				if (box[i] >= box[i + 3]) {
+					return true;
 				}
-				toRemove.add(face);
 			}
-			faces.removeAll(toRemove);
-			toRemove.clear();
+			return false;
+		});
+	}
+	
+	private static int[] getGridLines(List<int[]> added, List<int[]> removed, int axis) {
+		int[] lines = new int[(added.size() + removed.size()) * 2];
+		int i = 0;
+		for (int[] box : added) {
+			lines[i++] = box[axis];
+			lines[i++] = box[axis + 3];
+		}
+		for (int[] box : removed) {
+			lines[i++] = box[axis];
+			lines[i++] = box[axis + 3];
+		}
+		Arrays.sort(lines);
+		int size = 0;
+		for (int line : lines) {
+			if (size == 0 || lines[size - 1] != line) {
+				lines[size++] = line;
+			}
+		}
+		return Arrays.copyOf(lines, size);
+	}
+	
+	/**
+	 * Runs a lambda on the coordinates of every block in all of the Regions within this MultiRegion. May visit the same
+	 * block multiple times if any of the Regions overlap. Call {@link MultiRegion#recalculate()} first.
+	 * @param visitor The lambda to be run on each block's coordinates
+	 */
+	@Override
+	public void forEachPosition(PositionVisitor visitor) {
+		for (Region region : regions) {
+			region.forEachPosition(visitor);
 		}
 	}
 	
@@ -2,24 +2,39 @@ package redempt.redlib.region;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.block.BlockState;
+import org.bukkit.block.data.BlockData;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
+import org.bukkit.material.MaterialData;
 import org.bukkit.util.Vector;
 import redempt.redlib.RedLib;
+import redempt.redlib.misc.BlockChangeQueue;
+import redempt.redlib.misc.LongHashMap;
 import redempt.redlib.protection.ProtectedRegion;
 import redempt.redlib.protection.ProtectionPolicy.ProtectionType;
+import redempt.redlib.region.events.RegionEnterEvent;
+import redempt.redlib.region.events.RegionEnterEvent.EnterCause;
+import redempt.redlib.region.events.RegionExitEvent;
+import redempt.redlib.region.events.RegionExitEvent.ExitCause;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Represents a cuboid region in a world
@@ -27,8 +42,12 @@ import java.util.stream.Stream;
  */
 public class Region {
 	
+	// The corners are kept in sync with bounds by setLocations, so subclasses must use it to change them
 	protected Location start;
 	protected Location end;
+	private RegionBounds bounds;
+	private List<BiConsumer<Player, EnterCause>> enterListeners;
+	private List<BiConsumer<Player, ExitCause>> exitListeners;
 	
 	/**
 	 * Construct a Region using 2 corners
@@ -55,6 +74,16 @@ public class Region {
 		
 		this.start = new Location(start.getWorld(), minX, minY, minZ);
 		this.end = new Location(end.getWorld(), maxX, maxY, maxZ);
+		bounds = new RegionBounds(start.getWorld().getUID(), minX, minY, minZ, maxX, maxY, maxZ);
+	}
+	
+	/**
+	 * Gets the bounds of this Region, which can be checked against without allocating. The bounds are immutable,
+	 * so the returned object does not change when this Region does.
+	 * @return The bounds of this Region, or null if it is empty
+	 */
+	public RegionBounds getBounds() {
+		return bounds;
 	}
 	
 	/**
@@ -62,6 +91,7 @@ public class Region {
 	 */
 	public void enableEvents() {
 		RegionEnterExitListener.getRegionMap().set(this, this);
+		RegionEnterExitListener.regionEnabled(this);
 	}
 	
 	/**
@@ -69,6 +99,108 @@ public class Region {
 	 */
 	public void disableEvents() {
 		RegionEnterExitListener.getRegionMap().remove(this, this);
+		RegionEnterExitListener.regionDisabled(this);
+	}
+	
+	/**
+	 * Runs a lambda whenever a player enters this Region, enabling events for this Region if they were not already.
+	 * The lambda is called directly, without a {@link RegionEnterEvent}, and only for this Region.
+	 * @param listener The lambda to be run with each player who enters this Region
+	 */
+	public void onEnter(Consumer<Player> listener) {
+		onEnter((player, cause) -> listener.accept(player));
+	}
+	
+	/**
+	 * Runs a lambda whenever a player enters this Region for a given cause, enabling events for this Region if they
+	 * were not already
+	 * @param cause The cause to listen for
+	 * @param listener The lambda to be run with each player who enters this Region for the cause
+	 */
+	public void onEnter(EnterCause cause, Consumer<Player> listener) {
+		onEnter((player, c) -> {
+			if (c == cause) {
+				listener.accept(player);
+			}
+		});
+	}
+	
+	/**
+	 * Runs a lambda whenever a player enters this Region, enabling events for this Region if they were not already.
+	 * If the player entered by moving or teleporting and a {@link RegionEnterEvent} listener cancelled it, the lambda is not run.
+	 * @param listener The lambda to be run with each player who enters this Region and the cause
+	 */
+	public void onEnter(BiConsumer<Player, EnterCause> listener) {
+		if (enterListeners == null) {
+			enterListeners = new ArrayList<>();
+		}
+		enterListeners.add(listener);
+		enableEvents();
+	}
+	
+	/**
+	 * Runs a lambda whenever a player exits this Region, enabling events for this Region if they were not already.
+	 * The lambda is called directly, without a {@link RegionExitEvent}, and only for this Region.
+	 * @param listener The lambda to be run with each player who exits this Region
+	 */
+	public void onExit(Consumer<Player> listener) {
+		onExit((player, cause) -> listener.accept(player));
+	}
+	
+	/**
+	 * Runs a lambda whenever a player exits this Region for a given cause, enabling events for this Region if they
+	 * were not already
+	 * @param cause The cause to listen for
+	 * @param listener The lambda to be run with each player who exits this Region for the cause
+	 */
+	public void onExit(ExitCause cause, Consumer<Player> listener) {
+		onExit((player, c) -> {
+			if (c == cause) {
+				listener.accept(player);
+			}
+		});
+	}
+	
+	/**
+	 * Runs a lambda whenever a player exits this Region, enabling events for this Region if they were not already.
+	 * If the player exited by moving or teleporting and a {@link RegionExitEvent} listener cancelled it, the lambda is not run.
+	 * @param listener The lambda to be run with each player who exits this Region and the cause
+	 */
+	public void onExit(BiConsumer<Player, ExitCause> listener) {
+		if (exitListeners == null) {
+			exitListeners = new ArrayList<>();
+		}
+		exitListeners.add(listener);
+		enableEvents();
+	}
+	
+	/**
+	 * Removes all lambdas added with {@link Region#onEnter(BiConsumer)} and {@link Region#onExit(BiConsumer)}.
+	 * Events stay enabled for this Region until {@link Region#disableEvents()} is called.
+	 */
+	public void clearListeners() {
+		enterListeners = null;
+		exitListeners = null;
+	}
+	
+	void callEnterListeners(Player player, EnterCause cause) {
+		List<BiConsumer<Player, EnterCause>> listeners = enterListeners;
+		if (listeners == null) {
+			return;
+		}
+		for (int i = 0; i < listeners.size(); i++) {
+			listeners.get(i).accept(player, cause);
+		}
+	}
+	
+	void callExitListeners(Player player, ExitCause cause) {
+		List<BiConsumer<Player, ExitCause>> listeners = exitListeners;
+		if (listeners == null) {
+			return;
+		}
+		for (int i = 0; i < listeners.size(); i++) {
+			listeners.get(i).accept(player, cause);
+		}
 	}
 	
 	/**
@@ -92,8 +224,8 @@ public class Region {
 	 */
 	public Location[] getCorners() {
 		return new Location[] {
-					start,
-					end,
+					start.clone(),
+					end.clone(),
 					new Location(getWorld(), start.getX(), start.getY(), end.getZ()),
 					new Location(getWorld(), start.getX(), end.getY(), start.getZ()),
 					new Location(getWorld(), end.getX(), start.getY(), start.getZ()),
@@ -117,9 +249,7 @@ public class Region {
 	 * @return Whether this Region contains the given Location
 	 */
 	public boolean contains(Location loc) {
-		return loc.getWorld().getName().equals(start.getWorld().getName()) &&
-				loc.getX() >= start.getX() && loc.getY() >= start.getY() && loc.getZ() >= start.getZ() &&
-				loc.getX() < end.getX() && loc.getY() < end.getY() && loc.getZ() < end.getZ();
+		return bounds.contains(loc);
 	}
 	
 	/**
@@ -127,7 +257,12 @@ public class Region {
 	 * @return The dimensions of this Region
 	 */
 	public int[] getBlockDimensions() {
-		return new int[] {end.getBlockX() - start.getBlockX(), end.getBlockY() - start.getBlockY(), end.getBlockZ() - start.getBlockZ()};
+		RegionBounds b = bounds;
+		return new int[] {
+				Location.locToBlock(b.getMaxX()) - Location.locToBlock(b.getMinX()),
+				Location.locToBlock(b.getMaxY()) - Location.locToBlock(b.getMinY()),
+				Location.locToBlock(b.getMaxZ()) - Location.locToBlock(b.getMinZ())
+		};
 	}
 	
 	/**
@@ -151,7 +286,8 @@ public class Region {
 	 * @return The dimensions of this Region
 	 */
 	public double[] getDimensions() {
-		return new double[] {end.getX() - start.getX(), end.getY() - start.getY(), end.getZ() - start.getZ()};
+		RegionBounds b = bounds;
+		return new double[] {b.getMaxX() - b.getMinX(), b.getMaxY() - b.getMinY(), b.getMaxZ() - b.getMinZ()};
 	}
 	
 	/**
@@ -193,7 +329,17 @@ public class Region {
 	 * @return The state of this Region
 	 */
 	public RegionState getState() {
-		return new RegionState(this);
+		return new RegionState(this, null);
+	}
+	
+	/**
+	 * Gets the current state of this Region, storing only the blocks which differ from a previous state.
+	 * Useful for resetting a Region which only has a few blocks changed from a known state.
+	 * @param base The state to capture the differences from, which must have been captured from a Region of the same blocks
+	 * @return The state of this Region
+	 */
+	public RegionState getState(RegionState base) {
+		return new RegionState(this, base);
 	}
 	
 	/**
@@ -251,8 +397,7 @@ public class Region {
 	 * @param v The vector to be applied to both corners of the region
 	 */
 	public void move(Vector v) {
-		start = start.add(v);
-		end = end.add(v);
+		setLocations(start.clone().add(v), end.clone().add(v));
 	}
 	
 	/**
@@ -282,11 +427,168 @@ public class Region {
 	}
 	
 	/**
-	 * Run a lambda on every Block in this Region
+	 * Run a lambda on every Block in this Region. Each chunk is fetched once, and Blocks are taken from it directly.
 	 * @param lambda The lambda to be run on each Block
 	 */
 	public void forEachBlock(Consumer<Block> lambda) {
-		stream().forEach(lambda);
+		World world = getWorld();
+		Chunk[] chunk = {null};
+		forEachPosition((x, y, z) -> {
+			Chunk c = chunk[0];
+			if (c == null || c.getX() != x >> 4 || c.getZ() != z >> 4) {
+				c = chunk[0] = world.getChunkAt(x >> 4, z >> 4);
+			}
+			lambda.accept(c.getBlock(x & 15, y, z & 15));
+		});
+	}
+	
+	/**
+	 * Sets every block in this Region to the given BlockData using the default {@link BlockChangeQueue} (1.13+ only)
+	 * @param data The BlockData to set
+	 * @return The job setting the blocks, whose future is completed once every block has been set
+	 */
+	public BlockChangeQueue.Job fillAsync(BlockData data) {
+		return fillAsync(data, BlockChangeQueue.getDefault(), 0);
+	}
+	
+	/**
+	 * Sets every block in this Region to the given BlockData using a {@link BlockChangeQueue}, so that large fills
+	 * are spread over multiple ticks. Blocks which already have the BlockData are skipped. 1.13+ only, use a
+	 * {@link BlockChangeQueue.ChangeSet} with MaterialData on earlier versions.
+	 * @param data The BlockData to set
+	 * @param queue The queue to submit the changes to
+	 * @param priority The priority of the changes in the queue
+	 * @return The job setting the blocks, whose future is completed once every block has been set
+	 */
+	public BlockChangeQueue.Job fillAsync(BlockData data, BlockChangeQueue queue, int priority) {
+		BlockChangeQueue.ChangeSet changes = new BlockChangeQueue.ChangeSet(getWorld());
+		forEachPosition((x, y, z) -> changes.set(x, y, z, data));
+		return queue.submit(changes, priority);
+	}
+	
+	/**
+	 * Run a lambda on the coordinates of every block in this Region, without looking up any Blocks. The Region is
+	 * walked one chunk at a time, and one 16-block tall section at a time within each chunk.
+	 * @param visitor The lambda to be run on each block's coordinates
+	 */
+	public void forEachPosition(PositionVisitor visitor) {
+		RegionBounds b = bounds;
+		int minX = Location.locToBlock(b.getMinX());
+		int minY = Location.locToBlock(b.getMinY());
+		int minZ = Location.locToBlock(b.getMinZ());
+		int maxX = Location.locToBlock(b.getMaxX()) - 1;
+		int maxY = Location.locToBlock(b.getMaxY()) - 1;
+		int maxZ = Location.locToBlock(b.getMaxZ()) - 1;
+		if (minX > maxX || minY > maxY || minZ > maxZ) {
+			return;
+		}
+		for (int cx = minX >> 4; cx <= maxX >> 4; cx++) {
+			int x0 = Math.max(minX, cx << 4);
+			int x1 = Math.min(maxX, (cx << 4) + 15);
+			for (int cz = minZ >> 4; cz <= maxZ >> 4; cz++) {
+				int z0 = Math.max(minZ, cz << 4);
+				int z1 = Math.min(maxZ, (cz << 4) + 15);
+				for (int section = minY >> 4; section <= maxY >> 4; section++) {
+					int y0 = Math.max(minY, section << 4);
+					int y1 = Math.min(maxY, (section << 4) + 15);
+					for (int y = y0; y <= y1; y++) {
+						for (int z = z0; z <= z1; z++) {
+							for (int x = x0; x <= x1; x++) {
+								visitor.accept(x, y, z);
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Run a lambda on every block in this Region with a read-only {@link ChunkSnapshot} of the chunk it is in,
+	 * rather than its Block. A snapshot is taken once for each chunk, which is much faster than reading many Blocks,
+	 * but the lambda must only read from the snapshot.
+	 * @param visitor The lambda to be run on each block's snapshot and coordinates
+	 */
+	public void forEachSnapshot(SnapshotVisitor visitor) {
+		World world = getWorld();
+		ChunkSnapshot[] snapshot = {null};
+		forEachPosition((x, y, z) -> {
+			ChunkSnapshot s = snapshot[0];
+			if (s == null || s.getX() != x >> 4 || s.getZ() != z >> 4) {
+				s = snapshot[0] = world.getChunkAt(x >> 4, z >> 4).getChunkSnapshot(false, false, false);
+			}
+			visitor.accept(s, x, y, z);
+		});
+	}
+	
+	/**
+	 * Scans every block in this Region off the main thread. A {@link ChunkSnapshot} of each chunk this Region covers
+	 * is taken on the calling thread, which must be the main thread. The chunks are then scanned in parallel on the
+	 * common ForkJoinPool, each into its own result, and the results are combined.
+	 * @param supplier Creates an empty result for each chunk
+	 * @param scanner Adds a block to a result. It must only read from the snapshot it is given.
+	 * @param combiner Combines two results into one, which may be one of the results after modifying it
+	 * @param <T> The type of the result
+	 * @return A CompletableFuture which is completed with the combined result once every chunk has been scanned
+	 */
+	public <T> CompletableFuture<T> scanAsync(Supplier<T> supplier, SnapshotScanner<T> scanner, BinaryOperator<T> combiner) {
+		World world = getWorld();
+		LongHashMap<ScanChunk> chunks = new LongHashMap<>();
+		ScanChunk[] last = {null};
+		forEachPosition((x, y, z) -> {
+			ScanChunk chunk = last[0];
+			if (chunk == null || chunk.x != x >> 4 || chunk.z != z >> 4) {
+				long key = ((long) (x >> 4) << 32) | ((z >> 4) & 0xFFFFFFFFL);
+				chunk = chunks.get(key);
+				if (chunk == null) {
+					chunk = new ScanChunk(world.getChunkAt(x >> 4, z >> 4).getChunkSnapshot(false, false, false));
+					chunks.put(key, chunk);
+				}
+				last[0] = chunk;
+			}
+			chunk.add(x, y, z);
+		});
+		List<ScanChunk> list = chunks.values();
+		return CompletableFuture.supplyAsync(() -> list.parallelStream().map(c -> {
+			T result = supplier.get();
+			c.scan(result, scanner);
+			return result;
+		}).reduce(combiner).orElseGet(supplier), ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Counts the blocks in this Region matching a predicate off the main thread. Must be called on the main thread.
+	 * See {@link Region#scanAsync(Supplier, SnapshotScanner, BinaryOperator)}.
+	 * @param predicate The predicate to test each block with. It must only read from the snapshot it is given.
+	 * @return A CompletableFuture which is completed with the number of matching blocks
+	 */
+	public CompletableFuture<Integer> countAsync(SnapshotPredicate predicate) {
+		return scanAsync(() -> new int[1], (count, snapshot, x, y, z) -> {
+			if (predicate.test(snapshot, x, y, z)) {
+				count[0]++;
+			}
+		}, (a, b) -> {
+			a[0] += b[0];
+			return a;
+		}).thenApply(count -> count[0]);
+	}
+	
+	/**
+	 * Finds the blocks in this Region matching a predicate off the main thread. Must be called on the main thread.
+	 * See {@link Region#scanAsync(Supplier, SnapshotScanner, BinaryOperator)}.
+	 * @param predicate The predicate to test each block with. It must only read from the snapshot it is given.
+	 * @return A CompletableFuture which is completed with a BlockSetRegion of the matching blocks
+	 */
+	public CompletableFuture<BlockSetRegion> findAsync(SnapshotPredicate predicate) {
+		World world = getWorld();
+		return scanAsync(() -> new BlockSetRegion(world), (found, snapshot, x, y, z) -> {
+			if (predicate.test(snapshot, x, y, z)) {
+				found.add(x, y, z);
+			}
+		}, (a, b) -> {
+			a.add(b);
+			return a;
+		});
 	}
 	
 	/**
@@ -305,13 +607,11 @@ public class Region {
 		if (!o.getWorld().equals(getWorld())) {
 			return false;
 		}
-		if (o.isMulti()) {
+		if (o instanceof MultiRegion) {
 			MultiRegion multi = (MultiRegion) o;
 			return multi.getRegions().stream().anyMatch(r -> r.overlaps(this));
 		}
-		return (!(start.getX() > o.end.getX() || o.start.getX() > end.getX()
-				|| start.getY() > o.end.getY() || o.start.getY() > end.getY()
-				|| start.getZ() > o.end.getZ() || o.start.getZ() > end.getZ()));
+		return o.bounds != null && bounds.overlaps(o.bounds);
 	}
 	
 	/**
@@ -354,15 +654,40 @@ public class Region {
 	 * @return A Stream of all the blocks in this Region
 	 */
 	public Stream<Block> stream() {
-		int[] dimensions = this.getBlockDimensions();
-		RegionIterator iterator = new RegionIterator(dimensions[0], dimensions[1], dimensions[2]);
-		Stream<Block> stream = Stream.generate(() -> {
-			int[] pos = iterator.getPosition();
-			Block block = start.clone().add(pos[0], pos[1], pos[2]).getBlock();
-			iterator.next();
-			return block;
-		});
-		return stream.sequential().limit(getBlockVolume());
+		World world = getWorld();
+		RegionBounds b = bounds;
+		int minX = Location.locToBlock(b.getMinX());
+		int minY = Location.locToBlock(b.getMinY());
+		int minZ = Location.locToBlock(b.getMinZ());
+		int[] dimensions = getBlockDimensions();
+		long volume = Math.max(0, (long) dimensions[0] * dimensions[1] * dimensions[2]);
+		Spliterator<Block> spliterator = new Spliterators.AbstractSpliterator<Block>(volume,
+				Spliterator.SIZED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.ORDERED) {
+			
+			private long index = 0;
+			private int x = 0;
+			private int y = 0;
+			private int z = 0;
+			
+			@Override
+			public boolean tryAdvance(Consumer<? super Block> action) {
+				if (index >= volume) {
+					return false;
+				}
+				action.accept(world.getBlockAt(minX + x, minY + y, minZ + z));
+				index++;
+				if (++x >= dimensions[0]) {
+					x = 0;
+					if (++y >= dimensions[1]) {
+						y = 0;
+						z++;
+					}
+				}
+				return true;
+			}
+			
+		};
+		return StreamSupport.stream(spliterator, false);
 	}
 	
 	/**
@@ -392,86 +717,343 @@ public class Region {
 	}
 	
 	/**
-	 * Represents a state of a Region, not necessarily at the current point in time
+	 * Represents a state of a Region, not necessarily at the current point in time. Each block is stored as an index
+	 * into a palette of the distinct block data in the Region, packed into only as many bits as the palette needs.
+	 * The palette holds BlockData on 1.13+, and MaterialData on earlier versions.
+	 * A state captured relative to a base state only stores the blocks which differ from the base. Tile entities are
+	 * stored as BlockStates so that their contents can be restored.
 	 * @author Redempt
 	 *
 	 */
 	public static class RegionState {
 		
-		BlockState[][][] blocks;
-		private Region region;
-			
-		private RegionState(Region region) {
-			this.region = region;
+		private World world;
+		private int minX;
+		private int minY;
+		private int minZ;
+		private int sizeX;
+		private int sizeY;
+		private int sizeZ;
+		private RegionState base;
+		private Object[] palette;
+		private long[] ids;
+		private int bits;
+		// The sorted indexes of the blocks which differ from the base, or null if every block is stored
+		private int[] changed;
+		private int count = 0;
+		private LongHashMap<BlockState> tiles = new LongHashMap<>();
+		
+		private RegionState(Region region, RegionState base) {
+			world = region.getWorld();
+			RegionBounds bounds = region.getBounds();
+			minX = Location.locToBlock(bounds.getMinX());
+			minY = Location.locToBlock(bounds.getMinY());
+			minZ = Location.locToBlock(bounds.getMinZ());
 			int[] dimensions = region.getBlockDimensions();
-			blocks = new BlockState[dimensions[0]][dimensions[1]][dimensions[2]];
-			for (int x = 0; x < dimensions[0]; x++) {
-				for (int y = 0; y < dimensions[1]; y++) {
-					for (int z = 0; z < dimensions[2]; z++) {
-						Location loc = region.getStart().add(x, y, z);
-						blocks[x][y][z] = loc.getBlock().getState();
+			sizeX = dimensions[0];
+			sizeY = dimensions[1];
+			sizeZ = dimensions[2];
+			if (base != null && (!base.world.equals(world) || base.minX != minX || base.minY != minY || base.minZ != minZ
+					|| base.sizeX != sizeX || base.sizeY != sizeY || base.sizeZ != sizeZ)) {
+				throw new IllegalArgumentException("Base state must be of the same blocks");
+			}
+			this.base = base;
+			Map<Object, Integer> paletteIds = new HashMap<>();
+			List<Object> palette = new ArrayList<>();
+			int[] values = new int[base == null ? sizeX * sizeY * sizeZ : 64];
+			int[] positions = base == null ? null : new int[64];
+			for (int cx = minX >> 4; cx <= (minX + sizeX - 1) >> 4; cx++) {
+				int x0 = Math.max(minX, cx << 4);
+				int x1 = Math.min(minX + sizeX - 1, (cx << 4) + 15);
+				for (int cz = minZ >> 4; cz <= (minZ + sizeZ - 1) >> 4; cz++) {
+					int z0 = Math.max(minZ, cz << 4);
+					int z1 = Math.min(minZ + sizeZ - 1, (cz << 4) + 15);
+					Chunk chunk = world.getChunkAt(cx, cz);
+					for (BlockState tile : chunk.getTileEntities()) {
+						int index = index(tile.getX(), tile.getY(), tile.getZ());
+						if (index != -1) {
+							tiles.put(index, tile);
+						}
+					}
+					ChunkSnapshot snapshot = RedLib.midVersion >= 13 ? chunk.getChunkSnapshot(false, false, false) : null;
+					for (int y = minY; y < minY + sizeY; y++) {
+						for (int z = z0; z <= z1; z++) {
+							for (int x = x0; x <= x1; x++) {
+								Object data = snapshot != null ? snapshot.getBlockData(x & 15, y, z & 15) : getMaterialData(chunk.getBlock(x & 15, y, z & 15));
+								int index = index(x, y, z);
+								if (base != null && data.equals(base.getData(index))) {
+									continue;
+								}
+								Integer id = paletteIds.get(data);
+								if (id == null) {
+									id = palette.size();
+									palette.add(data);
+									paletteIds.put(data, id);
+								}
+								if (base == null) {
+									values[index] = id;
+									continue;
+								}
+								if (count == values.length) {
+									values = Arrays.copyOf(values, count * 2);
+									positions = Arrays.copyOf(positions, count * 2);
+								}
+								positions[count] = index;
+								values[count++] = id;
+							}
+						}
 					}
 				}
 			}
+			this.palette = palette.toArray();
+			if (base == null) {
+				count = values.length;
+			} else {
+				long[] sorted = new long[count];
+				for (int i = 0; i < count; i++) {
+					sorted[i] = ((long) positions[i] << 32) | values[i];
+				}
+				Arrays.sort(sorted);
+				changed = new int[count];
+				for (int i = 0; i < count; i++) {
+					changed[i] = (int) (sorted[i] >> 32);
+					values[i] = (int) sorted[i];
+				}
+			}
+			bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(this.palette.length - 1));
+			int perWord = 64 / bits;
+			ids = new long[(count + perWord - 1) / perWord];
+			for (int i = 0; i < count; i++) {
+				ids[i / perWord] |= (long) values[i] << ((i % perWord) * bits);
+			}
+		}
+		
+		private int index(int x, int y, int z) {
+			x -= minX;
+			y -= minY;
+			z -= minZ;
+			if (x < 0 || y < 0 || z < 0 || x >= sizeX || y >= sizeY || z >= sizeZ) {
+				return -1;
+			}
+			return (z * sizeY + y) * sizeX + x;
+		}
+		
+		@SuppressWarnings("deprecation")
+		private static MaterialData getMaterialData(Block block) {
+			return new MaterialData(block.getType(), block.getData());
+		}
+		
+		private static void setMaterialData(BlockState state, MaterialData data) {
+			// Setting the MaterialData alone does not change the type of the block on versions before 1.13
+			state.setType(data.getItemType());
+			state.setData(data);
+		}
+		
+		private Object getStored(int i) {
+			int perWord = 64 / bits;
+			return palette[(int) ((ids[i / perWord] >>> ((i % perWord) * bits)) & ((1L << bits) - 1))];
+		}
+		
+		private Object getData(int index) {
+			if (changed == null) {
+				return getStored(index);
+			}
+			int i = Arrays.binarySearch(changed, index);
+			return i >= 0 ? getStored(i) : base.getData(index);
 		}
 		
 		/**
-		 * Restores the Region to this state
+		 * Gets the BlockData stored in this state for a block (1.13+ only)
+		 * @param x The X coordinate of the block
+		 * @param y The Y coordinate of the block
+		 * @param z The Z coordinate of the block
+		 * @return The BlockData of the block in this state, or null if it is not in the Region
+		 * @throws UnsupportedOperationException if the server is older than 1.13
 		 */
-		public void restore() {
-			int[] dimensions = region.getBlockDimensions();
-			for (int x = 0; x < dimensions[0]; x++) {
-				for (int y = 0; y < dimensions[1]; y++) {
-					for (int z = 0; z < dimensions[2]; z++) {
-						blocks[x][y][z].update(true, false);
-					}
-				}
+		public BlockData getBlockData(int x, int y, int z) {
+			if (RedLib.midVersion < 13) {
+				throw new UnsupportedOperationException("BlockData is only available on 1.13+");
 			}
+			int index = index(x, y, z);
+			return index == -1 ? null : (BlockData) getData(index);
+		}
+		
+		/**
+		 * @return The state this state was captured relative to, or null if it stores every block
+		 */
+		public RegionState getBase() {
+			return base;
+		}
+		
+		/**
+		 * @return The number of blocks whose data is stored in this state, rather than in its base
+		 */
+		public int getStoredBlocks() {
+			return count;
+		}
+		
+		/**
+		 * Restores the Region to this state, skipping blocks which are already in this state. All blocks are
+		 * restored immediately, so prefer {@link RegionState#restoreAsync()} for large Regions.
+		 */
+		public void restore() {
+			new RestoreJob().runNow();
+		}
+		
+		/**
+		 * Restores the Region to this state using the default {@link BlockChangeQueue}, skipping blocks which are
+		 * already in this state
+		 * @return The job restoring the blocks, whose future is completed once every block has been restored
+		 */
+		public BlockChangeQueue.Job restoreAsync() {
+			return restoreAsync(BlockChangeQueue.getDefault(), 0);
+		}
+		
+		/**
+		 * Restores the Region to this state using a {@link BlockChangeQueue}, skipping blocks which are already in this state
+		 * @param queue The queue to submit the restoration to
+		 * @param priority The priority of the restoration in the queue
+		 * @return The job restoring the blocks, whose future is completed once every block has been restored
+		 */
+		public BlockChangeQueue.Job restoreAsync(BlockChangeQueue queue, int priority) {
+			return queue.submit(new RestoreJob(), priority);
 		}
 		
 		/**
-		 * Gets all the BlockStates in this RegionState
+		 * Gets all the BlockStates in this RegionState. Since this state only stores block data, this creates a BlockState
+		 * for each block, so it is very expensive for large Regions.
 		 * @return The 3-dimensional array of BlockStates
+		 * @deprecated Use {@link RegionState#getBlockData(int, int, int)} instead
 		 */
+		@Deprecated
 		public BlockState[][][] getBlocks() {
-			return blocks.clone();
+			BlockState[][][] blocks = new BlockState[sizeX][sizeY][sizeZ];
+			for (int x = 0; x < sizeX; x++) {
+				for (int y = 0; y < sizeY; y++) {
+					for (int z = 0; z < sizeZ; z++) {
+						int index = index(minX + x, minY + y, minZ + z);
+						BlockState state = tiles.get(index);
+						if (state == null) {
+							state = world.getBlockAt(minX + x, minY + y, minZ + z).getState();
+							Object data = getData(index);
+							if (data instanceof MaterialData) {
+								setMaterialData(state, (MaterialData) data);
+							} else {
+								state.setBlockData((BlockData) data);
+							}
+						}
+						blocks[x][y][z] = state;
+					}
+				}
+			}
+			return blocks;
+		}
+		
+		private class RestoreJob extends BlockChangeQueue.Job {
+			
+			private int index = 0;
+			private Chunk chunk;
+			
+			@Override
+			protected boolean step() {
+				if (index >= sizeX * sizeY * sizeZ) {
+					return false;
+				}
+				int x = minX + index % sizeX;
+				int y = minY + index / sizeX % sizeY;
+				int z = minZ + index / sizeX / sizeY;
+				if (chunk == null || chunk.getX() != x >> 4 || chunk.getZ() != z >> 4) {
+					chunk = world.getChunkAt(x >> 4, z >> 4);
+				}
+				Block block = chunk.getBlock(x & 15, y, z & 15);
+				Object data = getData(index);
+				if (data instanceof MaterialData) {
+					if (!getMaterialData(block).equals(data)) {
+						BlockState state = block.getState();
+						setMaterialData(state, (MaterialData) data);
+						state.update(true, false);
+					}
+				} else if (!block.getBlockData().equals(data)) {
+					block.setBlockData((BlockData) data, false);
+				}
+				BlockState tile = tiles.get(index);
+				if (tile != null) {
+					tile.update(true, false);
+				}
+				index++;
+				return true;
+			}
+			
 		}
 		
 	}
 	
-	private static class RegionIterator {
+	/**
+	 * A lambda which accepts the coordinates of a block
+	 */
+	public static interface PositionVisitor {
 		
-		private int maxX;
-		private int maxY;
-		private int maxZ;
-		private int x = 0;
-		private int y = 0;
-		private int z = 0;
+		public void accept(int x, int y, int z);
 		
-		public RegionIterator(int x, int y, int z) {
-			this.maxX = x;
-			this.maxY = y;
-			this.maxZ = z;
+	}
+	
+	/**
+	 * A lambda which accepts the coordinates of a block and a snapshot of the chunk it is in
+	 */
+	public static interface SnapshotVisitor {
+		
+		public void accept(ChunkSnapshot snapshot, int x, int y, int z);
+		
+	}
+	
+	/**
+	 * A lambda which tests a block using a snapshot of the chunk it is in
+	 */
+	public static interface SnapshotPredicate {
+		
+		public boolean test(ChunkSnapshot snapshot, int x, int y, int z);
+		
+	}
+	
+	/**
+	 * A lambda which adds a block to a result using a snapshot of the chunk it is in
+	 * @param <T> The type of the result
+	 */
+	public static interface SnapshotScanner<T> {
+		
+		public void accept(T result, ChunkSnapshot snapshot, int x, int y, int z);
+		
+	}
+	
+	private static class ScanChunk {
+		
+		private ChunkSnapshot snapshot;
+		private int x;
+		private int z;
+		// Positions within the chunk, packed as the Y coordinate followed by 4 bits each of Z and X
+		private int[] positions = new int[256];
+		private int size = 0;
+		
+		public ScanChunk(ChunkSnapshot snapshot) {
+			this.snapshot = snapshot;
+			this.x = snapshot.getX();
+			this.z = snapshot.getZ();
 		}
 		
-		public int[] getPosition() {
-			return new int[] {x, y, z};
+		public void add(int x, int y, int z) {
+			if (size == positions.length) {
+				positions = Arrays.copyOf(positions, size * 2);
+			}
+			positions[size++] = (y << 8) | ((z & 15) << 4) | (x & 15);
 		}
 		
-		public boolean next() {
-			x++;
-			if (x >= maxX) {
-				x = 0;
-				y++;
-				if (y >= maxY) {
-					y = 0;
-					z++;
-					if (z >= maxZ) {
-						return false;
-					}
-				}
+		public <T> void scan(T result, SnapshotScanner<T> scanner) {
+			int baseX = x << 4;
+			int baseZ = z << 4;
+			for (int i = 0; i < size; i++) {
+				int pos = positions[i];
+				scanner.accept(result, snapshot, baseX | (pos & 15), pos >> 8, baseZ | ((pos >> 4) & 15));
 			}
-			return true;
 		}
 		
 	}
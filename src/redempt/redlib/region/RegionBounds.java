@@ -0,0 +1,191 @@
+package redempt.redlib.region;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.UUID;
+
+/**
+ * The immutable bounds of a cuboid {@link Region}: the UID of its world and its minimum and maximum corners.
+ * Checking a point against bounds does not allocate, and since bounds never change and do not reference
+ * the World, they can safely be read from any thread.
+ * @author Redempt
+ */
+public final class RegionBounds {
+	
+	private final UUID world;
+	private final double minX;
+	private final double minY;
+	private final double minZ;
+	private final double maxX;
+	private final double maxY;
+	private final double maxZ;
+	
+	/**
+	 * Constructs bounds from two corners in any order
+	 * @param world The UID of the world the bounds are in
+	 * @param x1 The X coordinate of the first corner
+	 * @param y1 The Y coordinate of the first corner
+	 * @param z1 The Z coordinate of the first corner
+	 * @param x2 The X coordinate of the second corner
+	 * @param y2 The Y coordinate of the second corner
+	 * @param z2 The Z coordinate of the second corner
+	 */
+	public RegionBounds(UUID world, double x1, double y1, double z1, double x2, double y2, double z2) {
+		this.world = world;
+		minX = Math.min(x1, x2);
+		minY = Math.min(y1, y2);
+		minZ = Math.min(z1, z2);
+		maxX = Math.max(x1, x2);
+		maxY = Math.max(y1, y2);
+		maxZ = Math.max(z1, z2);
+	}
+	
+	/**
+	 * Constructs bounds from two corners in any order
+	 * @param start The first corner
+	 * @param end The second corner
+	 */
+	public RegionBounds(Location start, Location end) {
+		this(start.getWorld().getUID(), start.getX(), start.getY(), start.getZ(), end.getX(), end.getY(), end.getZ());
+	}
+	
+	/**
+	 * @return The UID of the world these bounds are in
+	 */
+	public UUID getWorldId() {
+		return world;
+	}
+	
+	/**
+	 * @return The minimum X coordinate
+	 */
+	public double getMinX() {
+		return minX;
+	}
+	
+	/**
+	 * @return The minimum Y coordinate
+	 */
+	public double getMinY() {
+		return minY;
+	}
+	
+	/**
+	 * @return The minimum Z coordinate
+	 */
+	public double getMinZ() {
+		return minZ;
+	}
+	
+	/**
+	 * @return The maximum X coordinate
+	 */
+	public double getMaxX() {
+		return maxX;
+	}
+	
+	/**
+	 * @return The maximum Y coordinate
+	 */
+	public double getMaxY() {
+		return maxY;
+	}
+	
+	/**
+	 * @return The maximum Z coordinate
+	 */
+	public double getMaxZ() {
+		return maxZ;
+	}
+	
+	/**
+	 * Checks whether a point is within these bounds, ignoring the world. The minimum corner is inclusive
+	 * and the maximum corner is exclusive.
+	 * @param x The X coordinate
+	 * @param y The Y coordinate
+	 * @param z The Z coordinate
+	 * @return Whether the point is within these bounds
+	 */
+	public boolean contains(double x, double y, double z) {
+		return x >= minX && y >= minY && z >= minZ && x < maxX && y < maxY && z < maxZ;
+	}
+	
+	/**
+	 * Checks whether a point in a world is within these bounds
+	 * @param world The UID of the world the point is in
+	 * @param x The X coordinate
+	 * @param y The Y coordinate
+	 * @param z The Z coordinate
+	 * @return Whether the point is within these bounds
+	 */
+	public boolean contains(UUID world, double x, double y, double z) {
+		return contains(x, y, z) && this.world.equals(world);
+	}
+	
+	/**
+	 * Checks whether a Location is within these bounds
+	 * @param loc The Location
+	 * @return Whether the Location is within these bounds
+	 */
+	public boolean contains(Location loc) {
+		if (!contains(loc.getX(), loc.getY(), loc.getZ())) {
+			return false;
+		}
+		World world = loc.getWorld();
+		return world != null && this.world.equals(world.getUID());
+	}
+	
+	/**
+	 * Checks whether these bounds overlap or touch other bounds
+	 * @param o The other bounds
+	 * @return Whether the bounds overlap
+	 */
+	public boolean overlaps(RegionBounds o) {
+		return world.equals(o.world)
+				&& !(minX > o.maxX || o.minX > maxX
+				|| minY > o.maxY || o.minY > maxY
+				|| minZ > o.maxZ || o.minZ > maxZ);
+	}
+	
+	/**
+	 * Gets these bounds moved by an offset
+	 * @param x The offset on the X axis
+	 * @param y The offset on the Y axis
+	 * @param z The offset on the Z axis
+	 * @return The moved bounds
+	 */
+	public RegionBounds move(double x, double y, double z) {
+		return new RegionBounds(world, minX + x, minY + y, minZ + z, maxX + x, maxY + y, maxZ + z);
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof RegionBounds)) {
+			return false;
+		}
+		RegionBounds other = (RegionBounds) o;
+		return world.equals(other.world)
+				&& minX == other.minX && minY == other.minY && minZ == other.minZ
+				&& maxX == other.maxX && maxY == other.maxY && maxZ == other.maxZ;
+	}
+	
+	@Override
+	public int hashCode() {
+		// Adding 0 turns -0.0 into 0.0, which equals treats as the same coordinate
+		int hash = world.hashCode();
+		hash = 31 * hash + Double.hashCode(minX + 0d);
+		hash = 31 * hash + Double.hashCode(minY + 0d);
+		hash = 31 * hash + Double.hashCode(minZ + 0d);
+		hash = 31 * hash + Double.hashCode(maxX + 0d);
+		hash = 31 * hash + Double.hashCode(maxY + 0d);
+		hash = 31 * hash + Double.hashCode(maxZ + 0d);
+		return hash;
+	}
+	
+	@Override
+	public String toString() {
+		return world + " " + minX + " " + minY + " " + minZ + " " + maxX + " " + maxY + " " + maxZ;
+	}
+	
+}
@@ -1,10 +1,15 @@
 package redempt.redlib.region;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Cancellable;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerMoveEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.event.vehicle.VehicleMoveEvent;
 import redempt.redlib.RedLib;
 import redempt.redlib.misc.EventListener;
 import redempt.redlib.region.events.RegionEnterEvent;
@@ -12,6 +17,16 @@ import redempt.redlib.region.events.RegionEnterEvent.EnterCause;
 import redempt.redlib.region.events.RegionExitEvent;
 import redempt.redlib.region.events.RegionExitEvent.ExitCause;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
 /**
  * @author Redempt
  */
@@ -19,6 +34,11 @@ public class RegionEnterExitListener {
 	
 	private static RegionMap<Region> regionMap = new RegionMap<>();
 	private static boolean registered = false;
+	// The regions each player was last known to be in, which are only recomputed when they move to another block
+	private static Map<UUID, Membership> members = new HashMap<>();
+	private static Collector collector = new Collector();
+	private static AsyncRegionTracker async;
+	private static volatile double maxSweepDistance = 16;
 	
 	/**
 	 * Registers the listener which calls {@link RegionEnterEvent} and {@link RegionExitEvent}. Called automatically
@@ -30,47 +50,370 @@ public class RegionEnterExitListener {
 		}
 		registered = true;
 		new EventListener<>(RedLib.getInstance(), PlayerMoveEvent.class, e -> {
-			regionMap.get(e.getFrom()).forEach(r -> {
-				if (r.contains(e.getFrom()) && !r.contains(e.getTo())) {
-					Bukkit.getPluginManager().callEvent(new RegionExitEvent(e.getPlayer(), r, ExitCause.MOVE, e));
-				}
-			});
-			regionMap.get(e.getTo()).forEach(r -> {
-				if (!r.contains(e.getFrom()) && r.contains(e.getTo())) {
-					Bukkit.getPluginManager().callEvent(new RegionEnterEvent(e.getPlayer(), r, EnterCause.MOVE, e));
-				}
-			});
+			if (async != null) {
+				return;
+			}
+			update(e.getPlayer(), e.getTo(), ExitCause.MOVE, EnterCause.MOVE, e);
+		});
+		new EventListener<>(RedLib.getInstance(), VehicleMoveEvent.class, e -> {
+			if (async != null) {
+				return;
+			}
+			if (RedLib.midVersion < 11) {
+				updatePassenger(e.getVehicle().getPassenger(), e.getTo());
+				return;
+			}
+			for (Entity passenger : e.getVehicle().getPassengers()) {
+				updatePassenger(passenger, e.getTo());
+			}
 		});
 		new EventListener<>(RedLib.getInstance(), PlayerTeleportEvent.class, e -> {
-			regionMap.get(e.getFrom()).forEach(r -> {
-				if (r.contains(e.getFrom()) && !r.contains(e.getTo())) {
-					Bukkit.getPluginManager().callEvent(new RegionExitEvent(e.getPlayer(), r, ExitCause.TELEPORT, e));
-				}
-			});
-			regionMap.get(e.getTo()).forEach(r -> {
-				if (!r.contains(e.getFrom()) && r.contains(e.getTo())) {
-					Bukkit.getPluginManager().callEvent(new RegionEnterEvent(e.getPlayer(), r, EnterCause.TELEPORT, e));
-				}
-			});
+			if (async != null) {
+				async.teleported(e.getPlayer());
+				return;
+			}
+			update(e.getPlayer(), e.getTo(), ExitCause.TELEPORT, EnterCause.TELEPORT, e);
 		});
 		new EventListener<>(RedLib.getInstance(), PlayerQuitEvent.class, e -> {
-			regionMap.get(e.getPlayer().getLocation()).forEach(r -> {
-				if (r.contains(e.getPlayer().getLocation())) {
-					Bukkit.getPluginManager().callEvent(new RegionExitEvent(e.getPlayer(), r, ExitCause.QUIT, null));
-				}
-			});
+			if (async != null) {
+				async.quit(e.getPlayer());
+				return;
+			}
+			Membership membership = members.remove(e.getPlayer().getUniqueId());
+			if (membership == null) {
+				return;
+			}
+			for (Region region : membership.regions) {
+				callExitEvent(e.getPlayer(), region, ExitCause.QUIT, null);
+				region.callExitListeners(e.getPlayer(), ExitCause.QUIT);
+			}
 		});
 		new EventListener<>(RedLib.getInstance(), PlayerJoinEvent.class, e -> {
-			regionMap.get(e.getPlayer().getLocation()).forEach(r -> {
-				if (r.contains(e.getPlayer().getLocation())) {
-					Bukkit.getPluginManager().callEvent(new RegionEnterEvent(e.getPlayer(), r, EnterCause.JOIN, null));
-				}
-			});
+			if (async != null) {
+				async.joined(e.getPlayer());
+				return;
+			}
+			Location loc = e.getPlayer().getLocation();
+			Membership membership = new Membership(loc);
+			collect(loc, membership.regions);
+			members.put(e.getPlayer().getUniqueId(), membership);
+			for (Region region : membership.regions) {
+				callEnterEvent(e.getPlayer(), region, EnterCause.JOIN, null);
+				region.callEnterListeners(e.getPlayer(), EnterCause.JOIN);
+			}
+		});
+		trackOnlinePlayers();
+	}
+	
+	/**
+	 * Sets whether enter and exit events are computed on a worker thread. This keeps the main thread free when there
+	 * are many event-enabled regions, but events are called a tick or two after the player moves, and cancelling them
+	 * does not cancel the movement. The worker reads a copy of each region taken when its events were enabled, so changes
+	 * made to a region afterwards are not seen until its events are enabled again.
+	 * @param async Whether to compute enter and exit events on a worker thread
+	 */
+	public static void setAsync(boolean async) {
+		if (async == isAsync()) {
+			return;
+		}
+		members.clear();
+		if (async) {
+			RegionEnterExitListener.async = new AsyncRegionTracker();
+			return;
+		}
+		RegionEnterExitListener.async.stop();
+		RegionEnterExitListener.async = null;
+		trackOnlinePlayers();
+	}
+	
+	/**
+	 * @return Whether enter and exit events are computed on a worker thread
+	 */
+	public static boolean isAsync() {
+		return async != null;
+	}
+	
+	private static void trackOnlinePlayers() {
+		Bukkit.getOnlinePlayers().forEach(p -> {
+			Membership membership = new Membership(p.getLocation());
+			collect(p.getLocation(), membership.regions);
+			members.put(p.getUniqueId(), membership);
+		});
+	}
+	
+	/**
+	 * Sets the furthest a player can move between two checks for the regions they passed through to be found.
+	 * Movements further than this, and teleports, only check the regions at either end.
+	 * @param distance The maximum distance, in blocks
+	 */
+	public static void setMaxSweepDistance(double distance) {
+		maxSweepDistance = distance;
+	}
+	
+	/**
+	 * @return The furthest a player can move between two checks for the regions they passed through to be found
+	 */
+	public static double getMaxSweepDistance() {
+		return maxSweepDistance;
+	}
+	
+	private static void updatePassenger(Entity passenger, Location to) {
+		if (passenger instanceof Player) {
+			update((Player) passenger, to, ExitCause.MOVE, EnterCause.MOVE, null);
+		}
+	}
+	
+	/**
+	 * Recomputes the regions a player is in if they moved to a different block, and calls events for the difference.
+	 * Regions which the player passed through since the last check, but is not in at either end, are entered and exited.
+	 * If the event which moved them is cancelled by a listener, the player stays in the regions they were in.
+	 */
+	private static void update(Player player, Location to, ExitCause exitCause, EnterCause enterCause, Cancellable parent) {
+		if (to == null) {
+			return;
+		}
+		Membership membership = members.get(player.getUniqueId());
+		if (membership == null) {
+			membership = new Membership(player.getLocation());
+			collect(player.getLocation(), membership.regions);
+			members.put(player.getUniqueId(), membership);
+		}
+		if (membership.isAt(to)) {
+			return;
+		}
+		List<Region> current = new ArrayList<>();
+		collect(to, current);
+		List<Region> previous = membership.regions;
+		List<Region> passed = Collections.emptyList();
+		if (exitCause == ExitCause.MOVE) {
+			passed = sweep(regionMap::query, r -> r, Region::getBounds, r -> r.getClass() == Region.class ? null : r,
+					membership.location, to, previous, current);
+		}
+		for (Region region : previous) {
+			if (!current.contains(region)) {
+				callExitEvent(player, region, exitCause, parent);
+			}
+		}
+		for (Region region : passed) {
+			callEnterEvent(player, region, enterCause, parent);
+			callExitEvent(player, region, exitCause, parent);
+		}
+		for (Region region : current) {
+			if (!previous.contains(region)) {
+				callEnterEvent(player, region, enterCause, parent);
+			}
+		}
+		if (parent != null && parent.isCancelled()) {
+			return;
+		}
+		membership.moveTo(to, current);
+		for (Region region : previous) {
+			if (!current.contains(region)) {
+				region.callExitListeners(player, exitCause);
+			}
+		}
+		for (Region region : passed) {
+			region.callEnterListeners(player, enterCause);
+			region.callExitListeners(player, exitCause);
+		}
+		for (Region region : current) {
+			if (!previous.contains(region)) {
+				region.callEnterListeners(player, enterCause);
+			}
+		}
+	}
+	
+	/**
+	 * Finds the regions which a straight line between two locations passes through, excluding those in either list.
+	 * Nothing is found if the locations are in different worlds or further apart than {@link #getMaxSweepDistance()}.
+	 * @param query Runs a lambda on each object whose bounds overlap the given bounds
+	 * @param result Gets the region to return from an object
+	 * @param bounds Gets the bounds to check the line against from an object
+	 * @param shape Gets the region to check points on the line against from an object, or null if it is a cuboid
+	 * @param from The start of the line
+	 * @param to The end of the line
+	 * @param previous The regions containing the start of the line
+	 * @param current The regions containing the end of the line
+	 * @param <T> The type of object queried
+	 * @return The regions which the line passes through
+	 */
+	static <T> List<Region> sweep(BiConsumer<RegionBounds, Consumer<T>> query, Function<T, Region> result,
+	                              Function<T, RegionBounds> bounds, Function<T, Region> shape,
+	                              Location from, Location to, List<Region> previous, List<Region> current) {
+		if (!from.getWorld().equals(to.getWorld()) || from.distanceSquared(to) > maxSweepDistance * maxSweepDistance) {
+			return Collections.emptyList();
+		}
+		List<Region> passed = new ArrayList<>();
+		query.accept(new RegionBounds(from, to), t -> {
+			Region region = result.apply(t);
+			if (!previous.contains(region) && !current.contains(region) && !passed.contains(region)
+					&& crosses(bounds.apply(t), shape.apply(t), from, to)) {
+				passed.add(region);
+			}
 		});
+		return passed;
+	}
+	
+	/**
+	 * Checks whether a straight line between two locations passes through a region. The line is clipped to the bounds
+	 * of the region, and regions which are not cuboids are then checked at points a quarter of a block apart.
+	 */
+	private static boolean crosses(RegionBounds b, Region shape, Location from, Location to) {
+		if (b == null) {
+			return false;
+		}
+		double[] start = {from.getX(), from.getY(), from.getZ()};
+		double[] delta = {to.getX() - start[0], to.getY() - start[1], to.getZ() - start[2]};
+		double[] min = {b.getMinX(), b.getMinY(), b.getMinZ()};
+		double[] max = {b.getMaxX(), b.getMaxY(), b.getMaxZ()};
+		double tMin = 0;
+		double tMax = 1;
+		for (int axis = 0; axis < 3; axis++) {
+			if (delta[axis] == 0) {
+				if (start[axis] < min[axis] || start[axis] >= max[axis]) {
+					return false;
+				}
+				continue;
+			}
+			double t1 = (min[axis] - start[axis]) / delta[axis];
+			double t2 = (max[axis] - start[axis]) / delta[axis];
+			tMin = Math.max(tMin, Math.min(t1, t2));
+			tMax = Math.min(tMax, Math.max(t1, t2));
+			if (tMin > tMax) {
+				return false;
+			}
+		}
+		if (shape == null) {
+			return true;
+		}
+		double length = Math.sqrt(delta[0] * delta[0] + delta[1] * delta[1] + delta[2] * delta[2]) * (tMax - tMin);
+		int steps = Math.max(1, (int) Math.ceil(length * 4));
+		Location point = new Location(from.getWorld(), 0, 0, 0);
+		for (int i = 0; i <= steps; i++) {
+			double t = tMin + (tMax - tMin) * i / steps;
+			point.setX(start[0] + delta[0] * t);
+			point.setY(start[1] + delta[1] * t);
+			point.setZ(start[2] + delta[2] * t);
+			if (shape.contains(point)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Calls a {@link RegionEnterEvent}, unless no listeners are registered for it
+	 */
+	static void callEnterEvent(Player player, Region region, EnterCause cause, Cancellable parent) {
+		if (RegionEnterEvent.getHandlerList().getRegisteredListeners().length != 0) {
+			Bukkit.getPluginManager().callEvent(new RegionEnterEvent(player, region, cause, parent));
+		}
+	}
+	
+	/**
+	 * Calls a {@link RegionExitEvent}, unless no listeners are registered for it
+	 */
+	static void callExitEvent(Player player, Region region, ExitCause cause, Cancellable parent) {
+		if (RegionExitEvent.getHandlerList().getRegisteredListeners().length != 0) {
+			Bukkit.getPluginManager().callEvent(new RegionExitEvent(player, region, cause, parent));
+		}
+	}
+	
+	private static void collect(Location loc, List<Region> regions) {
+		collector.loc = loc;
+		collector.regions = regions;
+		regionMap.query(loc, collector);
+		collector.loc = null;
+		collector.regions = null;
+	}
+	
+	/**
+	 * Called when a region has its events enabled, so that players already in it are not sent an enter event
+	 */
+	static void regionEnabled(Region region) {
+		if (async != null) {
+			async.regionEnabled(region);
+			return;
+		}
+		for (Membership membership : members.values()) {
+			if (!membership.regions.contains(region) && region.contains(membership.location)) {
+				// Copied rather than modified, since this may be called while the list is being iterated
+				List<Region> regions = new ArrayList<>(membership.regions);
+				regions.add(region);
+				membership.regions = regions;
+			}
+		}
+	}
+	
+	/**
+	 * Called when a region has its events disabled, so that players in it are not sent an exit event
+	 */
+	static void regionDisabled(Region region) {
+		if (async != null) {
+			async.regionDisabled(region);
+			return;
+		}
+		for (Membership membership : members.values()) {
+			if (membership.regions.contains(region)) {
+				List<Region> regions = new ArrayList<>(membership.regions);
+				regions.remove(region);
+				membership.regions = regions;
+			}
+		}
 	}
 	
 	protected static RegionMap<Region> getRegionMap() {
 		return regionMap;
 	}
 	
+	private static class Membership {
+		
+		private UUID world;
+		private int x;
+		private int y;
+		private int z;
+		private Location location;
+		private List<Region> regions = new ArrayList<>();
+		
+		public Membership(Location loc) {
+			setLocation(loc);
+		}
+		
+		public boolean isAt(Location loc) {
+			return loc.getBlockX() == x && loc.getBlockY() == y && loc.getBlockZ() == z
+					&& loc.getWorld().getUID().equals(world);
+		}
+		
+		public void moveTo(Location loc, List<Region> regions) {
+			setLocation(loc);
+			this.regions = regions;
+		}
+		
+		private void setLocation(Location loc) {
+			world = loc.getWorld().getUID();
+			x = loc.getBlockX();
+			y = loc.getBlockY();
+			z = loc.getBlockZ();
+			location = loc.clone();
+		}
+		
+	}
+	
+	/**
+	 * Adds each region which contains a location to a list. Reused so that membership checks do not allocate a lambda.
+	 */
+	private static class Collector implements Consumer<Region> {
+		
+		private Location loc;
+		private List<Region> regions;
+		
+		@Override
+		public void accept(Region region) {
+			if (region.contains(loc)) {
+				regions.add(region);
+			}
+		}
+		
+	}
+	
 }
@@ -1,20 +1,35 @@
 package redempt.redlib.region;
 
-import org.bukkit.Bukkit;
 import org.bukkit.Location;
-import org.bukkit.World;
+import redempt.redlib.misc.LongHashMap;
 
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.ObjDoubleConsumer;
 
 /**
- * Represents a spatial mapping which can retrieve objects by approximate location in O(1)
+ * Represents a spatial mapping which can retrieve objects by location in O(1). Each object is stored in a grid
+ * whose cells are at least as large as the object, so no object is stored in more than 4 cells no matter its size.
+ * The grid for level 0 uses cells the size of the scale, and each level above it doubles the size of the cells.
  * @author Redempt
  * @param <T> The type mapped by this RegionMap
  */
 public class RegionMap<T> {
 	
-	private Map<Coordinate, Set<T>> map = new HashMap<>();
+	private static final int LEVELS = 24;
+	
+	private static int cell(double coord, long size) {
+		return (int) Math.floorDiv((long) Location.locToBlock(coord), size);
+	}
+	
+	private static long key(int x, int z) {
+		return ((long) x << 32) | (z & 0xFFFFFFFFL);
+	}
+	
+	private Map<UUID, WorldIndex<T>> worlds = new HashMap<>();
 	private int scale;
+	private NearestSearch<T> search = new NearestSearch<>();
+	private boolean searching = false;
 	
 	/**
 	 * Constructs a RegionMap with scale 100
@@ -25,11 +40,14 @@ public class RegionMap<T> {
 	
 	/**
 	 * Constructs a RegionMap with the specified scale
-	 * @param scale The distance between things being stored in the internal map. Higher values use less memory
-	 *              but more CPU time. If the regions being used to store objects in this RegionMap are especially large,
-	 *              use a larger scale. If they are very small and there are a lot of them, use a smaller scale.
+	 * @param scale The size of the smallest cells in the internal map. Objects smaller than this are stored in the
+	 *              smallest cells, and larger objects in larger cells. If there are a lot of very small regions,
+	 *              use a smaller scale.
 	 */
 	public RegionMap(int scale) {
+		if (scale <= 0) {
+			throw new IllegalArgumentException("Scale must be positive");
+		}
 		this.scale = scale;
 	}
 	
@@ -46,34 +64,28 @@ public class RegionMap<T> {
 	 * @param object The object to set
 	 */
 	public void set(Region region, T object) {
-		Coordinate start = new Coordinate(region.getStart(), scale);
-		Coordinate end = new Coordinate(region.getEnd(), scale);
-		for (int x = start.getX(); x <= end.getX(); x++) {
-			for (int z = start.getZ(); z <= end.getZ(); z++) {
-				Coordinate coord = new Coordinate(start.getWorld(), x, z);
-				Set<T> list = map.get(coord);
-				if (list == null) {
-					list = new HashSet<>();
-				}
-				list.add(object);
-				map.put(coord, list);
-			}
+		RegionBounds bounds = region.getBounds();
+		if (bounds != null) {
+			add(new Entry<>(object, bounds));
 		}
 	}
 	
+	/**
+	 * Maps bounds to an object
+	 * @param bounds The bounds to map the object to
+	 * @param object The object to set
+	 */
+	public void set(RegionBounds bounds, T object) {
+		add(new Entry<>(object, bounds));
+	}
+	
 	/**
 	 * Maps a Location to an object
 	 * @param loc The location to map the object to
-	 * @param object The object to put at this approximate location
+	 * @param object The object to put at this location
 	 */
 	public void set(Location loc, T object) {
-		Coordinate coord = new Coordinate(loc, scale);
-		Set<T> list = map.get(coord);
-		if (list == null) {
-			list = new HashSet<>();
-		}
-		list.add(object);
-		map.put(coord, list);
+		add(new Entry<>(object, new RegionBounds(loc, loc)));
 	}
 	
 	/**
@@ -82,22 +94,9 @@ public class RegionMap<T> {
 	 * @param object The object to remove
 	 */
 	public void remove(Region region, T object) {
-		if (object == null) {
-			return;
-		}
-		Coordinate start = new Coordinate(region.getStart(), scale);
-		Coordinate end = new Coordinate(region.getEnd(), scale);
-		for (int x = start.getX(); x <= end.getX(); x++) {
-			for (int z = start.getZ(); z <= end.getZ(); z++) {
-				Coordinate coord = new Coordinate(start.getWorld(), x, z);
-				Set<T> list = map.get(coord);
-				if (list != null) {
-					list.remove(object);
-					if (list.size() == 0) {
-						map.remove(coord);
-					}
-				}
-			}
+		RegionBounds bounds = region.getBounds();
+		if (object != null && bounds != null) {
+			remove(bounds, object);
 		}
 	}
 	
@@ -107,26 +106,63 @@ public class RegionMap<T> {
 	 * @param object The object to remove
 	 */
 	public void remove(Location loc, T object) {
-		if (object == null) {
-			return;
-		}
-		Coordinate coord = new Coordinate(loc, scale);
-		Set<T> list = map.get(coord);
-		if (list != null) {
-			list.remove(object);
-			if (list.size() == 0) {
-				map.remove(coord);
-			}
+		if (object != null) {
+			remove(new RegionBounds(loc, loc), object);
 		}
 	}
 	
 	/**
-	 * Gets all objects mapped to an approximate location
+	 * Gets all objects mapped to an approximate location. The returned set is a read-only view which should not be kept,
+	 * since it may change when this RegionMap does. This usually does not allocate, unless objects of very different
+	 * sizes are mapped near the location.
 	 * @param location The location to check nearby objects for
 	 * @return A set of objects mapped near the given location
 	 */
 	public Set<T> get(Location location) {
-		return map.getOrDefault(new Coordinate(location, scale), new HashSet<>());
+		WorldIndex<T> index = worlds.get(location.getWorld().getUID());
+		if (index == null) {
+			return Collections.emptySet();
+		}
+		Cell<T> found = null;
+		Set<T> set = null;
+		for (int level = 0; level < LEVELS; level++) {
+			Cell<T> cell = index.getCell(level, scale, location.getX(), location.getZ());
+			if (cell == null) {
+				continue;
+			}
+			if (found == null) {
+				found = cell;
+				continue;
+			}
+			if (set == null) {
+				set = new HashSet<>(found.objects);
+			}
+			set.addAll(cell.objects);
+		}
+		if (set != null) {
+			return Collections.unmodifiableSet(set);
+		}
+		return found == null ? Collections.emptySet() : found.view;
+	}
+	
+	/**
+	 * Runs a lambda on all objects mapped to an approximate location, without allocating
+	 * @param location The location to check nearby objects for
+	 * @param lambda The lambda to be run on each object mapped near the given location
+	 */
+	public void forEach(Location location, Consumer<T> lambda) {
+		WorldIndex<T> index = worlds.get(location.getWorld().getUID());
+		if (index == null) {
+			return;
+		}
+		for (int level = 0; level < LEVELS; level++) {
+			Cell<T> cell = index.getCell(level, scale, location.getX(), location.getZ());
+			if (cell != null) {
+				for (int i = 0; i < cell.objects.size(); i++) {
+					lambda.accept(cell.objects.get(i));
+				}
+			}
+		}
 	}
 	
 	/**
@@ -135,31 +171,178 @@ public class RegionMap<T> {
 	 * @param radius The radius to check
 	 * @return A set of all objects mapped near the given location
 	 * @implNote The radius is not exact, no distance checks are made. Make sure you do your own distance checks
-	 * if needed.
+	 * if needed, or use {@link RegionMap#query(Region, Consumer)}.
 	 */
 	public Set<T> getNearby(Location location, int radius) {
-		radius /= scale;
-		radius += 1;
 		Set<T> set = new HashSet<>();
-		Coordinate center = new Coordinate(location, scale);
-		for (int x = center.getX() - radius; x <= center.getX() + radius; x++) {
-			for (int z = center.getZ() - radius; z <= center.getZ() + radius; z++) {
-				Coordinate coord = new Coordinate(location.getWorld(), x, z);
-				Set<T> tmp = map.get(coord);
-				if (tmp != null) {
-					set.addAll(tmp);
+		WorldIndex<T> index = worlds.get(location.getWorld().getUID());
+		if (index == null) {
+			return set;
+		}
+		for (int level = 0; level < LEVELS; level++) {
+			LongHashMap<Cell<T>> cells = index.levels[level];
+			if (cells == null) {
+				continue;
+			}
+			long size = (long) scale << level;
+			int minX = cell(location.getX() - radius, size);
+			int minZ = cell(location.getZ() - radius, size);
+			int maxX = cell(location.getX() + radius, size);
+			int maxZ = cell(location.getZ() + radius, size);
+			if ((long) (maxX - minX + 1) * (maxZ - minZ + 1) > cells.size()) {
+				cells.forEachValue(c -> {
+					if (c.x >= minX && c.x <= maxX && c.z >= minZ && c.z <= maxZ) {
+						c.addTo(set);
+					}
+				});
+				continue;
+			}
+			for (int x = minX; x <= maxX; x++) {
+				for (int z = minZ; z <= maxZ; z++) {
+					Cell<T> cell = cells.get(key(x, z));
+					if (cell != null) {
+						cell.addTo(set);
+					}
 				}
 			}
 		}
 		return set;
 	}
 	
+	/**
+	 * Runs a lambda on every object mapped to a Region containing the given location. Objects mapped to
+	 * Locations are not included. This check is exact, and does not allocate.
+	 * @param location The location to check
+	 * @param visitor The lambda to be run on each object
+	 */
+	public void query(Location location, Consumer<T> visitor) {
+		WorldIndex<T> index = worlds.get(location.getWorld().getUID());
+		if (index == null) {
+			return;
+		}
+		double x = location.getX();
+		double y = location.getY();
+		double z = location.getZ();
+		for (int level = 0; level < LEVELS; level++) {
+			Cell<T> cell = index.getCell(level, scale, x, z);
+			if (cell == null) {
+				continue;
+			}
+			for (int i = 0; i < cell.entries.size(); i++) {
+				Entry<T> entry = cell.entries.get(i);
+				if (entry.bounds.contains(x, y, z)) {
+					visitor.accept(entry.object);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Runs a lambda once on every object mapped to a Region or Location which overlaps the bounds of the given Region.
+	 * This check is exact, and does not allocate unless the Region is larger than the number of cells storing objects.
+	 * @param region The Region to check
+	 * @param visitor The lambda to be run on each object
+	 */
+	public void query(Region region, Consumer<T> visitor) {
+		RegionBounds bounds = region.getBounds();
+		if (bounds != null) {
+			query(bounds, visitor);
+		}
+	}
+	
+	/**
+	 * Runs a lambda once on every object mapped to a Region or Location which overlaps the given bounds.
+	 * This check is exact, and does not allocate unless the bounds are larger than the number of cells storing objects.
+	 * @param bounds The bounds to check
+	 * @param visitor The lambda to be run on each object
+	 */
+	public void query(RegionBounds bounds, Consumer<T> visitor) {
+		WorldIndex<T> index = worlds.get(bounds.getWorldId());
+		if (index == null) {
+			return;
+		}
+		for (int level = 0; level < LEVELS; level++) {
+			LongHashMap<Cell<T>> cells = index.levels[level];
+			if (cells == null) {
+				continue;
+			}
+			long size = (long) scale << level;
+			int minX = cell(bounds.getMinX(), size);
+			int minZ = cell(bounds.getMinZ(), size);
+			int maxX = cell(bounds.getMaxX(), size);
+			int maxZ = cell(bounds.getMaxZ(), size);
+			if ((long) (maxX - minX + 1) * (maxZ - minZ + 1) > cells.size()) {
+				cells.forEachValue(c -> query(c, bounds, size, visitor));
+				continue;
+			}
+			for (int x = minX; x <= maxX; x++) {
+				for (int z = minZ; z <= maxZ; z++) {
+					Cell<T> cell = cells.get(key(x, z));
+					if (cell != null) {
+						query(cell, bounds, size, visitor);
+					}
+				}
+			}
+		}
+	}
+	
+	private void query(Cell<T> cell, RegionBounds bounds, long size, Consumer<T> visitor) {
+		for (int i = 0; i < cell.entries.size(); i++) {
+			Entry<T> entry = cell.entries.get(i);
+			if (!entry.bounds.overlaps(bounds)) {
+				continue;
+			}
+			// An object can be in several cells, so it is only visited from the cell holding the corner of the overlap
+			if (cell(Math.max(entry.bounds.getMinX(), bounds.getMinX()), size) == cell.x
+					&& cell(Math.max(entry.bounds.getMinZ(), bounds.getMinZ()), size) == cell.z) {
+				visitor.accept(entry.object);
+			}
+		}
+	}
+	
+	/**
+	 * Runs a lambda on the objects nearest to a location, in order of distance. The distance to an object mapped to a
+	 * Region is the distance to the closest point of its bounds, which is 0 if the location is within them.
+	 * This does not allocate unless called from within the lambda.
+	 * @param location The location to search from
+	 * @param count The maximum number of objects to visit
+	 * @param visitor The lambda to be run on each object and its distance from the location
+	 */
+	public void nearest(Location location, int count, ObjDoubleConsumer<T> visitor) {
+		WorldIndex<T> index = worlds.get(location.getWorld().getUID());
+		if (index == null || count <= 0) {
+			return;
+		}
+		boolean nested = searching;
+		NearestSearch<T> search = nested ? new NearestSearch<>() : this.search;
+		searching = true;
+		try {
+			search.reset(count, location.getX(), location.getY(), location.getZ());
+			// Larger cells are searched first, since they need fewer lookups to find close entries to bound the search
+			for (int level = LEVELS - 1; level >= 0; level--) {
+				LongHashMap<Cell<T>> cells = index.levels[level];
+				if (cells != null) {
+					search.searchLevel(cells, (long) scale << level);
+				}
+			}
+			search.visit(visitor);
+		} finally {
+			searching = nested;
+		}
+	}
+	
 	/**
 	 * @return All objects mapped with this RegionMap
 	 */
 	public Set<T> getAll() {
 		Set<T> set = new HashSet<>();
-		map.values().forEach(set::addAll);
+		for (WorldIndex<T> index : worlds.values()) {
+			for (LongHashMap<Cell<T>> cells : index.levels) {
+				if (cells != null) {
+					cells.forEachValue(c -> c.addTo(set));
+				}
+			}
+		}
 		return set;
 	}
 	
@@ -167,51 +350,302 @@ public class RegionMap<T> {
 	 * Clears all data from this RegionMap
 	 */
 	public void clear() {
-		map.clear();
+		worlds.clear();
+	}
+	
+	private int getLevel(RegionBounds bounds) {
+		double size = Math.max(bounds.getMaxX() - bounds.getMinX(), bounds.getMaxZ() - bounds.getMinZ());
+		int level = 0;
+		while (level < LEVELS - 1 && ((long) scale << level) < size) {
+			level++;
+		}
+		return level;
+	}
+	
+	private void add(Entry<T> entry) {
+		WorldIndex<T> index = worlds.computeIfAbsent(entry.bounds.getWorldId(), k -> new WorldIndex<>());
+		int level = getLevel(entry.bounds);
+		if (index.levels[level] == null) {
+			index.levels[level] = new LongHashMap<>();
+		}
+		LongHashMap<Cell<T>> cells = index.levels[level];
+		long size = (long) scale << level;
+		int maxX = cell(entry.bounds.getMaxX(), size);
+		int maxZ = cell(entry.bounds.getMaxZ(), size);
+		for (int x = cell(entry.bounds.getMinX(), size); x <= maxX; x++) {
+			for (int z = cell(entry.bounds.getMinZ(), size); z <= maxZ; z++) {
+				long key = key(x, z);
+				Cell<T> cell = cells.get(key);
+				if (cell == null) {
+					cell = new Cell<>(x, z);
+					cells.put(key, cell);
+				}
+				cell.add(entry);
+			}
+		}
+	}
+	
+	private void remove(RegionBounds bounds, T object) {
+		WorldIndex<T> index = worlds.get(bounds.getWorldId());
+		if (index == null) {
+			return;
+		}
+		int level = getLevel(bounds);
+		LongHashMap<Cell<T>> cells = index.levels[level];
+		if (cells == null) {
+			return;
+		}
+		long size = (long) scale << level;
+		int maxX = cell(bounds.getMaxX(), size);
+		int maxZ = cell(bounds.getMaxZ(), size);
+		for (int x = cell(bounds.getMinX(), size); x <= maxX; x++) {
+			for (int z = cell(bounds.getMinZ(), size); z <= maxZ; z++) {
+				long key = key(x, z);
+				Cell<T> cell = cells.get(key);
+				if (cell != null && cell.remove(object) && cell.entries.isEmpty()) {
+					cells.remove(key);
+				}
+			}
+		}
+		if (cells.isEmpty()) {
+			index.levels[level] = null;
+			if (index.isEmpty()) {
+				worlds.remove(bounds.getWorldId());
+			}
+		}
+	}
+	
+	private static class WorldIndex<T> {
+		
+		@SuppressWarnings("unchecked")
+		private LongHashMap<Cell<T>>[] levels = new LongHashMap[LEVELS];
+		
+		public Cell<T> getCell(int level, int scale, double x, double z) {
+			LongHashMap<Cell<T>> cells = levels[level];
+			if (cells == null) {
+				return null;
+			}
+			long size = (long) scale << level;
+			return cells.get(key(cell(x, size), cell(z, size)));
+		}
+		
+		public boolean isEmpty() {
+			for (LongHashMap<Cell<T>> cells : levels) {
+				if (cells != null) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
 	}
 	
-	private static class Coordinate {
+	private static class Cell<T> {
 		
 		private int x;
 		private int z;
-		private World world;
+		private List<Entry<T>> entries = new ArrayList<>(2);
+		// The distinct objects in this cell, kept as a list so they can be iterated without allocating
+		private List<T> objects = new ArrayList<>(2);
+		private Set<T> view = new ObjectSet<>(objects);
 		
-		public Coordinate(World world, int x, int z) {
+		public Cell(int x, int z) {
 			this.x = x;
 			this.z = z;
-			this.world = world;
 		}
 		
-		public Coordinate(Location location, int scale) {
-			this.x = location.getBlockX() / scale;
-			this.z = location.getBlockZ() / scale;
-			this.world = location.getWorld();
+		public void add(Entry<T> entry) {
+			for (Entry<T> other : entries) {
+				if (other.object.equals(entry.object) && other.bounds.equals(entry.bounds)) {
+					return;
+				}
+			}
+			entries.add(entry);
+			if (!objects.contains(entry.object)) {
+				objects.add(entry.object);
+			}
+		}
+		
+		public boolean remove(T object) {
+			objects.remove(object);
+			return entries.removeIf(e -> e.object.equals(object));
 		}
 		
-		public int getX() {
-			return x;
+		public void addTo(Set<T> set) {
+			set.addAll(objects);
 		}
 		
-		public int getZ() {
-			return z;
+	}
+	
+	/**
+	 * A read-only Set view of a list of distinct objects
+	 */
+	private static class ObjectSet<T> extends AbstractSet<T> {
+		
+		private List<T> objects;
+		
+		public ObjectSet(List<T> objects) {
+			this.objects = Collections.unmodifiableList(objects);
 		}
 		
-		public World getWorld() {
-			return world;
+		@Override
+		public Iterator<T> iterator() {
+			return objects.iterator();
 		}
 		
 		@Override
-		public int hashCode() {
-			return Objects.hash(x, z, world);
+		public int size() {
+			return objects.size();
 		}
 		
 		@Override
-		public boolean equals(Object o) {
-			if (o instanceof Coordinate) {
-				Coordinate other = (Coordinate) o;
-				return other.x == x && other.z == z && other.world.equals(world);
+		public boolean contains(Object o) {
+			return objects.contains(o);
+		}
+		
+	}
+	
+	private static class Entry<T> {
+		
+		private T object;
+		private RegionBounds bounds;
+		
+		public Entry(T object, RegionBounds bounds) {
+			this.object = object;
+			this.bounds = bounds;
+		}
+		
+		public double distance(double x, double y, double z) {
+			double dx = Math.max(0, Math.max(bounds.getMinX() - x, x - bounds.getMaxX()));
+			double dy = Math.max(0, Math.max(bounds.getMinY() - y, y - bounds.getMaxY()));
+			double dz = Math.max(0, Math.max(bounds.getMinZ() - z, z - bounds.getMaxZ()));
+			return Math.sqrt(dx * dx + dy * dy + dz * dz);
+		}
+		
+	}
+	
+	/**
+	 * A bounded max-heap of the closest entries found so far, which is reused between searches
+	 */
+	private static class NearestSearch<T> {
+		
+		private double[] distances = new double[0];
+		private Object[] entries = new Object[0];
+		private int count;
+		private int max;
+		private double x;
+		private double y;
+		private double z;
+		
+		public void reset(int max, double x, double y, double z) {
+			if (distances.length < max) {
+				distances = new double[max];
+				entries = new Object[max];
+			}
+			this.max = max;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			count = 0;
+		}
+		
+		/**
+		 * Searches the cells of one level in rings around the center, stopping once the next ring is further than every
+		 * entry found. If the rings would cover more cells than the level has, every cell is checked directly instead.
+		 */
+		public void searchLevel(LongHashMap<Cell<T>> cells, long size) {
+			int cx = cell(x, size);
+			int cz = cell(z, size);
+			int total = cells.size();
+			int visited = 0;
+			for (int r = 0; visited < total; r++) {
+				if (count == max && (r - 1) * (double) size >= distances[0]) {
+					return;
+				}
+				if (8L * r > total) {
+					cells.forEachValue(this::offer);
+					return;
+				}
+				for (int i = -r; i <= r; i++) {
+					visited += offer(cells.get(key(cx + i, cz - r)));
+					if (r != 0) {
+						visited += offer(cells.get(key(cx + i, cz + r)));
+					}
+				}
+				for (int i = -r + 1; i <= r - 1; i++) {
+					visited += offer(cells.get(key(cx - r, cz + i)));
+					visited += offer(cells.get(key(cx + r, cz + i)));
+				}
+			}
+		}
+		
+		private int offer(Cell<T> cell) {
+			if (cell == null) {
+				return 0;
+			}
+			for (int i = 0; i < cell.entries.size(); i++) {
+				offer(cell.entries.get(i));
+			}
+			return 1;
+		}
+		
+		private void offer(Entry<T> entry) {
+			double distance = entry.distance(x, y, z);
+			if (count == max && distance >= distances[0]) {
+				return;
+			}
+			for (int i = 0; i < count; i++) {
+				if (entries[i] == entry) {
+					return;
+				}
+			}
+			if (count < max) {
+				int i = count++;
+				while (i > 0 && distances[(i - 1) / 2] < distance) {
+					distances[i] = distances[(i - 1) / 2];
+					entries[i] = entries[(i - 1) / 2];
+					i = (i - 1) / 2;
+				}
+				distances[i] = distance;
+				entries[i] = entry;
+				return;
+			}
+			siftDown(0, count, distance, entry);
+		}
+		
+		private void siftDown(int i, int end, double distance, Object entry) {
+			while (i * 2 + 1 < end) {
+				int child = i * 2 + 1;
+				if (child + 1 < end && distances[child + 1] > distances[child]) {
+					child++;
+				}
+				if (distances[child] <= distance) {
+					break;
+				}
+				distances[i] = distances[child];
+				entries[i] = entries[child];
+				i = child;
+			}
+			distances[i] = distance;
+			entries[i] = entry;
+		}
+		
+		@SuppressWarnings("unchecked")
+		public void visit(ObjDoubleConsumer<T> visitor) {
+			for (int end = count - 1; end > 0; end--) {
+				double distance = distances[end];
+				Object entry = entries[end];
+				distances[end] = distances[0];
+				entries[end] = entries[0];
+				siftDown(0, end, distance, entry);
+			}
+			int found = count;
+			count = 0;
+			for (int i = 0; i < found; i++) {
+				Entry<T> entry = (Entry<T>) entries[i];
+				entries[i] = null;
+				visitor.accept(entry.object, distances[i]);
 			}
-			return super.equals(o);
 		}
 		
 	}
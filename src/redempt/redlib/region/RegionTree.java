@@ -0,0 +1,169 @@
+package redempt.redlib.region;
+
+import org.bukkit.Location;
+
+import java.util.List;
+
+/**
+ * A bounding volume hierarchy over a list of Regions, used by {@link MultiRegion} to check which Regions contain a
+ * point without checking every one of them. The tree is stored in flat arrays, and is immutable once built, so it
+ * must be rebuilt when the Regions change.
+ * @author Redempt
+ */
+class RegionTree {
+	
+	private static final int LEAF_SIZE = 4;
+	
+	private Region[] regions;
+	// Six bounds per node: min X, Y, Z, then max X, Y, Z
+	private double[] bounds;
+	// For inner nodes, the index of the second child, as the first child always directly follows its parent.
+	// For leaf nodes, the bitwise complement of the index of the first Region it holds.
+	private int[] children;
+	private int[] counts;
+	private int nodes = 0;
+	private int size;
+	
+	/**
+	 * Builds a tree over a list of Regions
+	 * @param regions The Regions to build the tree over
+	 */
+	public RegionTree(List<Region> regions) {
+		size = regions.size();
+		this.regions = regions.toArray(new Region[size]);
+		double[] boxes = new double[size * 6];
+		for (int i = 0; i < size; i++) {
+			Region region = this.regions[i];
+			boxes[i * 6] = region.start.getX();
+			boxes[i * 6 + 1] = region.start.getY();
+			boxes[i * 6 + 2] = region.start.getZ();
+			boxes[i * 6 + 3] = region.end.getX();
+			boxes[i * 6 + 4] = region.end.getY();
+			boxes[i * 6 + 5] = region.end.getZ();
+		}
+		int capacity = Math.max(1, size * 2 - 1);
+		bounds = new double[capacity * 6];
+		children = new int[capacity];
+		counts = new int[capacity];
+		if (size > 0) {
+			build(boxes, 0, size);
+		}
+	}
+	
+	/**
+	 * @return The number of Regions in this tree
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Checks whether any Region in this tree contains a Location
+	 * @param loc The Location to check
+	 * @return Whether any Region in this tree contains the Location
+	 */
+	public boolean contains(Location loc) {
+		return size > 0 && contains(0, loc, loc.getX(), loc.getY(), loc.getZ());
+	}
+	
+	private boolean contains(int node, Location loc, double x, double y, double z) {
+		int b = node * 6;
+		if (x < bounds[b] || y < bounds[b + 1] || z < bounds[b + 2]
+				|| x > bounds[b + 3] || y > bounds[b + 4] || z > bounds[b + 5]) {
+			return false;
+		}
+		int child = children[node];
+		if (child >= 0) {
+			return contains(node + 1, loc, x, y, z) || contains(child, loc, x, y, z);
+		}
+		int first = ~child;
+		for (int i = first; i < first + counts[node]; i++) {
+			if (regions[i].contains(loc)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private int build(double[] boxes, int from, int to) {
+		int node = nodes++;
+		int b = node * 6;
+		double cminX = Double.MAX_VALUE, cminY = Double.MAX_VALUE, cminZ = Double.MAX_VALUE;
+		double cmaxX = -Double.MAX_VALUE, cmaxY = -Double.MAX_VALUE, cmaxZ = -Double.MAX_VALUE;
+		for (int i = 0; i < 3; i++) {
+			bounds[b + i] = Double.MAX_VALUE;
+			bounds[b + i + 3] = -Double.MAX_VALUE;
+		}
+		for (int i = from; i < to; i++) {
+			int o = i * 6;
+			for (int axis = 0; axis < 3; axis++) {
+				bounds[b + axis] = Math.min(bounds[b + axis], boxes[o + axis]);
+				bounds[b + axis + 3] = Math.max(bounds[b + axis + 3], boxes[o + axis + 3]);
+			}
+			double cx = boxes[o] + boxes[o + 3];
+			double cy = boxes[o + 1] + boxes[o + 4];
+			double cz = boxes[o + 2] + boxes[o + 5];
+			cminX = Math.min(cminX, cx);
+			cminY = Math.min(cminY, cy);
+			cminZ = Math.min(cminZ, cz);
+			cmaxX = Math.max(cmaxX, cx);
+			cmaxY = Math.max(cmaxY, cy);
+			cmaxZ = Math.max(cmaxZ, cz);
+		}
+		if (to - from <= LEAF_SIZE) {
+			children[node] = ~from;
+			counts[node] = to - from;
+			return node;
+		}
+		// Split at the median centre along the axis the centres are most spread out on
+		double spreadX = cmaxX - cminX, spreadY = cmaxY - cminY, spreadZ = cmaxZ - cminZ;
+		int axis = spreadX >= spreadY && spreadX >= spreadZ ? 0 : spreadY >= spreadZ ? 1 : 2;
+		int mid = (from + to) >>> 1;
+		select(boxes, from, to - 1, mid, axis);
+		build(boxes, from, mid);
+		children[node] = build(boxes, mid, to);
+		return node;
+	}
+	
+	private void select(double[] boxes, int left, int right, int k, int axis) {
+		while (left < right) {
+			double pivot = centre(boxes, (left + right) >>> 1, axis);
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (centre(boxes, i, axis) < pivot) {
+					i++;
+				}
+				while (centre(boxes, j, axis) > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(boxes, i++, j--);
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+	
+	private static double centre(double[] boxes, int i, int axis) {
+		return boxes[i * 6 + axis] + boxes[i * 6 + axis + 3];
+	}
+	
+	private void swap(double[] boxes, int a, int b) {
+		Region region = regions[a];
+		regions[a] = regions[b];
+		regions[b] = region;
+		for (int i = 0; i < 6; i++) {
+			double value = boxes[a * 6 + i];
+			boxes[a * 6 + i] = boxes[b * 6 + i];
+			boxes[b * 6 + i] = value;
+		}
+	}
+	
+}
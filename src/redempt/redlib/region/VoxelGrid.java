@@ -0,0 +1,155 @@
+package redempt.redlib.region;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A bitmap of filled cells in a rectilinear grid, used by {@link MultiRegion#recalculate()} to decompose a shape
+ * into cuboids without touching any Blocks. The grid lines are given as sorted coordinates on each axis, so a grid
+ * over a few large cuboids has few cells even if they span many blocks.
+ * @author Redempt
+ */
+class VoxelGrid {
+	
+	private int[] xs;
+	private int[] ys;
+	private int[] zs;
+	private int sizeX;
+	private int sizeY;
+	private int sizeZ;
+	private long[] bits;
+	
+	/**
+	 * Creates an empty grid
+	 * @param xs The sorted, distinct X coordinates of the grid lines
+	 * @param ys The sorted, distinct Y coordinates of the grid lines
+	 * @param zs The sorted, distinct Z coordinates of the grid lines
+	 */
+	public VoxelGrid(int[] xs, int[] ys, int[] zs) {
+		this.xs = xs;
+		this.ys = ys;
+		this.zs = zs;
+		sizeX = Math.max(0, xs.length - 1);
+		sizeY = Math.max(0, ys.length - 1);
+		sizeZ = Math.max(0, zs.length - 1);
+		long cells = (long) sizeX * sizeY * sizeZ;
+		if ((cells + 63) >> 6 > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("Shape is too complex to fit in a voxel grid");
+		}
+		bits = new long[(int) ((cells + 63) >> 6)];
+	}
+	
+	/**
+	 * Fills or clears every cell between two sets of coordinates. The coordinates must be grid lines.
+	 * @param minX The minimum X coordinate, inclusive
+	 * @param minY The minimum Y coordinate, inclusive
+	 * @param minZ The minimum Z coordinate, inclusive
+	 * @param maxX The maximum X coordinate, exclusive
+	 * @param maxY The maximum Y coordinate, exclusive
+	 * @param maxZ The maximum Z coordinate, exclusive
+	 * @param fill Whether to fill the cells rather than clear them
+	 */
+	public void set(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, boolean fill) {
+		int x0 = Arrays.binarySearch(xs, minX);
+		int x1 = Arrays.binarySearch(xs, maxX);
+		int y0 = Arrays.binarySearch(ys, minY);
+		int y1 = Arrays.binarySearch(ys, maxY);
+		int z0 = Arrays.binarySearch(zs, minZ);
+		int z1 = Arrays.binarySearch(zs, maxZ);
+		if (x0 < 0 || x1 < 0 || y0 < 0 || y1 < 0 || z0 < 0 || z1 < 0) {
+			throw new IllegalArgumentException("Coordinates are not grid lines");
+		}
+		for (int z = z0; z < z1; z++) {
+			for (int y = y0; y < y1; y++) {
+				setRange(index(x0, y, z), x1 - x0, fill);
+			}
+		}
+	}
+	
+	/**
+	 * Greedily decomposes the filled cells into non-overlapping boxes, clearing the grid. Each box is grown as far as
+	 * possible along X, then Y, then Z, starting from the lowest filled cell remaining.
+	 * @return The boxes, as arrays of the minimum X, Y and Z coordinates followed by the maximum X, Y and Z coordinates
+	 */
+	public List<int[]> decompose() {
+		List<int[]> boxes = new ArrayList<>();
+		for (int word = 0; word < bits.length; word++) {
+			while (bits[word] != 0) {
+				long index = ((long) word << 6) + Long.numberOfTrailingZeros(bits[word]);
+				int x = (int) (index % sizeX);
+				int y = (int) (index / sizeX % sizeY);
+				int z = (int) (index / sizeX / sizeY);
+				int maxX = x + 1;
+				while (maxX < sizeX && isSet(index(maxX, y, z))) {
+					maxX++;
+				}
+				int length = maxX - x;
+				int maxY = y + 1;
+				while (maxY < sizeY && isSet(index(x, maxY, z), length)) {
+					maxY++;
+				}
+				int maxZ = z + 1;
+				while (maxZ < sizeZ && isSet(x, y, maxZ, length, maxY)) {
+					maxZ++;
+				}
+				for (int cz = z; cz < maxZ; cz++) {
+					for (int cy = y; cy < maxY; cy++) {
+						setRange(index(x, cy, cz), length, false);
+					}
+				}
+				boxes.add(new int[] {xs[x], ys[y], zs[z], xs[maxX], ys[maxY], zs[maxZ]});
+			}
+		}
+		return boxes;
+	}
+	
+	private long index(int x, int y, int z) {
+		return ((long) z * sizeY + y) * sizeX + x;
+	}
+	
+	private boolean isSet(long index) {
+		return (bits[(int) (index >> 6)] & (1L << index)) != 0;
+	}
+	
+	private boolean isSet(int x, int y, int z, int length, int maxY) {
+		for (int cy = y; cy < maxY; cy++) {
+			if (!isSet(index(x, cy, z), length)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private boolean isSet(long from, int length) {
+		long to = from + length;
+		while (from < to) {
+			int word = (int) (from >> 6);
+			int offset = (int) (from & 63);
+			int count = (int) Math.min(64 - offset, to - from);
+			long mask = count == 64 ? -1L : ((1L << count) - 1) << offset;
+			if ((bits[word] & mask) != mask) {
+				return false;
+			}
+			from += count;
+		}
+		return true;
+	}
+	
+	private void setRange(long from, int length, boolean fill) {
+		long to = from + length;
+		while (from < to) {
+			int word = (int) (from >> 6);
+			int offset = (int) (from & 63);
+			int count = (int) Math.min(64 - offset, to - from);
+			long mask = count == 64 ? -1L : ((1L << count) - 1) << offset;
+			if (fill) {
+				bits[word] |= mask;
+			} else {
+				bits[word] &= ~mask;
+			}
+			from += count;
+		}
+	}
+	
+}